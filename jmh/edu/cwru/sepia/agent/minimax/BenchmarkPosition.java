@@ -0,0 +1,30 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The starting position of one of the shipped maps, loaded with {@link ScenarioLoader}. Every benchmark is run on
+ * each map in turn.
+ * <p>
+ * The maps are read from the directory named by the minimax.data system property, which the build points at data/.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkPosition {
+
+    @Param({"Game2fv2a.xml", "Game2fv1a_Obstacles.xml", "Game2fv2a_Obstacles.xml"})
+    public String scenario;
+
+    GameState state;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        state = ScenarioLoader.load(new File(System.getProperty("minimax.data", "data"), scenario));
+    }
+}
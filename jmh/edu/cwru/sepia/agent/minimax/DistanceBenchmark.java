@@ -0,0 +1,57 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Path distances per second from a footman to an archer, by A* and by looking them up in the distance fields the
+ * evaluation uses in place of A*. Each operation is one distance, taking the footman and archer pairs in turn.
+ */
+@State(Scope.Thread)
+public class DistanceBenchmark {
+
+    private GameState state;
+    private DistanceFields fields;
+    private GameState.MapLocation[] footmen;
+    private GameState.MapLocation[] archers;
+    private int pair;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkPosition position) {
+        state = position.state;
+        fields = state.getDistanceFields();
+        footmen = locations(state.getFootmanCount(), 0);
+        archers = locations(state.getUnitCount() - state.getFootmanCount(), state.getFootmanCount());
+    }
+
+    private GameState.MapLocation[] locations(int count, int firstUnit) {
+        GameState.MapLocation[] locations = new GameState.MapLocation[count];
+        for (int i = 0; i < count; i++) {
+            locations[i] = new GameState.MapLocation(state.getX(firstUnit + i), state.getY(firstUnit + i));
+        }
+        return locations;
+    }
+
+    @Benchmark
+    public int aStarDistance() {
+        GameState.MapLocation footman = footmen[pair / archers.length];
+        GameState.MapLocation archer = archers[pair % archers.length];
+        nextPair();
+        return state.aStarDistance(footman, archer);
+    }
+
+    @Benchmark
+    public int fieldDistance() {
+        GameState.MapLocation footman = footmen[pair / archers.length];
+        GameState.MapLocation archer = archers[pair % archers.length];
+        nextPair();
+        return fields.distance(footman.x, footman.y, archer.x, archer.y);
+    }
+
+    private void nextPair() {
+        pair = pair + 1 == footmen.length * archers.length ? 0 : pair + 1;
+    }
+}
@@ -0,0 +1,37 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Evaluations per second of the positions after the footmen's first move. Each operation evaluates one of them,
+ * taking the moves in turn.
+ */
+@State(Scope.Thread)
+public class EvaluationBenchmark {
+
+    private SearchState searchState;
+    private int[] moves;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkPosition position) {
+        searchState = new SearchState(position.state);
+        AlphaBetaSearcher searcher = new AlphaBetaSearcher(new TranspositionTable(1), new SearchClock());
+        int moveCount = searcher.generateMoves(searchState, 0, TranspositionTable.NO_MOVE);
+        moves = searcher.sortedMoves(0, moveCount);
+    }
+
+    @Benchmark
+    public double evaluation() {
+        int move = moves[next];
+        next = next + 1 == moves.length ? 0 : next + 1;
+        searchState.apply(move);
+        double utility = searchState.getUtility();
+        searchState.undo(move);
+        return utility;
+    }
+}
@@ -0,0 +1,71 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/**
+ * Children per second of the starting positions, made the way the search makes them and through
+ * GameState.getChildren. Each operation makes all of a position's children, and the children counter reports how
+ * many that was.
+ */
+public class MoveGenerationBenchmark {
+
+    @State(Scope.Thread)
+    public static class Generator {
+        SearchState searchState;
+        MoveGenerator generator;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkPosition position) {
+            searchState = new SearchState(position.state);
+            generator = new MoveGenerator();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Children {
+        public long children;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            children = 0;
+        }
+    }
+
+    /**
+     * Children through MoveGenerator and apply/undo
+     */
+    @Benchmark
+    public void moveGeneration(Generator generator, Children children, Blackhole blackhole) {
+        SearchState state = generator.searchState;
+        generator.generator.reset(state);
+        while (generator.generator.hasNext()) {
+            int move = generator.generator.next();
+            state.apply(move);
+            blackhole.consume(state.getZobristKey());
+            state.undo(move);
+            children.children++;
+        }
+    }
+
+    /**
+     * Children through GameState.getChildren. Each call starts from a fresh snapshot, since a state's children are
+     * only built once.
+     */
+    @Benchmark
+    public List<GameStateChild> getChildren(BenchmarkPosition position, Children children) {
+        GameState state = position.state;
+        GameState snapshot = new GameState(state, state.copyUnits(), state.getMaxNode(), state.getZobristKey());
+        List<GameStateChild> result = snapshot.getChildren();
+        children.children += result.size();
+        return result;
+    }
+}
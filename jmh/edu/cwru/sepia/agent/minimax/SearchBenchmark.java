@@ -0,0 +1,65 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Nodes per second of fixed depth searches from the starting positions. Each operation is one search, and the nodes
+ * counter reports how many states it searched.
+ * <p>
+ * The transposition table is emptied and the killers and history forgotten before each search, outside the timed
+ * part, so every search does the same work. The table is kept smaller than the agent's so emptying it doesn't slow
+ * the benchmark down between searches.
+ */
+@State(Scope.Thread)
+public class SearchBenchmark {
+
+    private static final int TABLE_ENTRIES = 1 << 14;
+
+    @Param({"2", "3", "4", "5", "6"})
+    public int depth;
+
+    private TranspositionTable transpositionTable;
+    private AlphaBetaSearcher searcher;
+    private SearchState searchState;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Nodes {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            nodes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkPosition position) {
+        transpositionTable = new TranspositionTable(TABLE_ENTRIES);
+        SearchClock clock = new SearchClock();
+        clock.start(0);
+        searcher = new AlphaBetaSearcher(transpositionTable, clock);
+        searchState = new SearchState(position.state);
+    }
+
+    @Setup(Level.Invocation)
+    public void forget() {
+        transpositionTable.clear();
+        searcher.clearMoveOrdering();
+    }
+
+    @Benchmark
+    public double search(Nodes nodes) {
+        long before = searcher.getNodeCount();
+        double value = searcher.alphaBetaValue(searchState, depth, 0, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY);
+        nodes.nodes += searcher.getNodeCount() - before;
+        return value;
+    }
+}
@@ -0,0 +1,640 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * The alpha beta search over a {@link SearchState}.
+ * <p>
+ * A searcher walks one mutable state with apply and undo and keeps a move list per ply, so searching a node
+ * allocates nothing. A searcher belongs to one thread; parallel searches give each thread its own searcher and
+ * share the transposition table and clock.
+ * <p>
+ * In principal variation search mode, only the first move at each node is searched with the full window. The
+ * ordering usually makes it the best, so each later move is searched with a null window that only asks whether it
+ * is better, and is searched again with the full window if it is.
+ * <p>
+ * In unit tree mode each unit of the side to move acts as its own level of the tree, see SearchState.applyUnit, so
+ * a node has one child per action of one unit instead of one per combination of every unit's actions. The remaining
+ * depth still counts whole turns and only goes down when the turn passes to the other side, so leaves are always
+ * between turns.
+ * <p>
+ * Two selective search options, both off by default, spend less time on quiet moves, those where no unit attacks.
+ * With late move reductions, the quiet moves after the hash move, the killers and the first few quiet moves are
+ * searched a ply shallower with a null window, and only searched to the full depth if that shows they might be
+ * better than the moves before them. With futility pruning, at a node whose children are leaves a quiet move is
+ * skipped if the largest change a quiet move can make to the utility still couldn't bring it inside the window.
+ * That bound is exact, so futility pruning never changes the value of the search, only its cost.
+ * <p>
+ * With quiescence search on, a leaf where an attack is possible isn't simply evaluated. The search carries on past
+ * the nominal depth with attacks only, for up to the given number of plys, and at each of those nodes the side to
+ * move may stand pat, taking the utility as it is instead of attacking. So a leaf in the middle of an exchange of
+ * attacks gets the value of the exchange rather than of whichever side happened to strike last.
+ * <p>
+ * A state where one side has been wiped out is worth WIN_VALUE to the footmen if they won, less the number of plys
+ * from the root, or minus that if they lost, so the search takes the quickest win and puts off a loss the longest.
+ * These values are stored in the transposition table as distances from the state rather than from the root, since
+ * the same state may be reached at a different ply or from a later root.
+ */
+public class AlphaBetaSearcher {
+
+    static final int MAX_PLY = 128;
+
+    /**
+     * The value of a win at the root, far outside the range of the utility
+     */
+    static final double WIN_VALUE = 1_000_000;
+
+    private final TranspositionTable transpositionTable;
+    private final SearchClock clock;
+    private final boolean principalVariation;
+    private final boolean unitTree;
+
+    /**
+     * The number of quiet moves searched to the full depth at a node before the rest are reduced, or 0 for no
+     * reductions
+     */
+    private final int reductionMoves;
+    private final boolean futilityPruning;
+
+    /**
+     * The number of plys of attacks searched past the nominal depth, or 0 for no quiescence search
+     */
+    private final int quiescencePlys;
+
+    private final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+    private final MoveGenerator generator = new MoveGenerator();
+
+    private final MoveOrdering ordering = new MoveOrdering(MAX_PLY);
+
+    private final int[][] moves  = new int[MAX_PLY][];
+    private final int[][] scores = new int[MAX_PLY][];
+
+    /**
+     * For each ply, the number of moves at the front of the list that were placed there by generateMoves, the
+     * hash move and the killers, and don't need scoring
+     */
+    private final int[] placedMoves = new int[MAX_PLY];
+
+    /**
+     * For each ply, whether the moves after the placed ones have been scored yet
+     */
+    private final boolean[] scored = new boolean[MAX_PLY];
+
+    private final boolean[] plyMaxNode  = new boolean[MAX_PLY];
+    private final int[] plyMoverCount   = new int[MAX_PLY];
+    private final int[] plyActingUnit   = new int[MAX_PLY];
+
+    /**
+     * What this searcher has done since the counters were last reset
+     */
+    private final SearchCounters counters = new SearchCounters(MAX_PLY);
+
+    public AlphaBetaSearcher(TranspositionTable transpositionTable, SearchClock clock) {
+        this(transpositionTable, clock, false, false);
+    }
+
+    /**
+     * @param transpositionTable The table shared by all of the search's threads
+     * @param clock              The clock of the search
+     * @param principalVariation Whether to use principal variation search instead of plain alpha beta
+     * @param unitTree           Whether to search one unit's action per level instead of joint moves
+     */
+    public AlphaBetaSearcher(TranspositionTable transpositionTable, SearchClock clock, boolean principalVariation,
+                             boolean unitTree) {
+        this(transpositionTable, clock, principalVariation, unitTree, 0, false, 0);
+    }
+
+    /**
+     * @param transpositionTable The table shared by all of the search's threads
+     * @param clock              The clock of the search
+     * @param principalVariation Whether to use principal variation search instead of plain alpha beta
+     * @param unitTree           Whether to search one unit's action per level instead of joint moves
+     * @param reductionMoves     The number of quiet moves searched to the full depth at each node before late move
+     *                           reductions start, or 0 for none
+     * @param futilityPruning    Whether to skip quiet moves next to the leaves that can't reach the window
+     * @param quiescencePlys     The number of plys of attacks to search past the leaves, or 0 for none
+     */
+    public AlphaBetaSearcher(TranspositionTable transpositionTable, SearchClock clock, boolean principalVariation,
+                             boolean unitTree, int reductionMoves, boolean futilityPruning, int quiescencePlys) {
+        this.transpositionTable = transpositionTable;
+        this.clock = clock;
+        this.principalVariation = principalVariation;
+        this.unitTree = unitTree;
+        this.reductionMoves = reductionMoves;
+        this.futilityPruning = futilityPruning;
+        this.quiescencePlys = quiescencePlys;
+    }
+
+    /**
+     * Returns the value of a state by applying the alphabeta search algorithm
+     * @param state The state to search from, left unchanged on return
+     * @param depth The remaining number of plys under this state
+     * @param ply   The number of plys from the root to this state
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta  The current best value for the minimizing node from this node to the root
+     * @return The value of this state
+     */
+    public double alphaBetaValue(SearchState state, int depth, int ply, double alpha, double beta) {
+        clock.check();
+        counters.nodes++;
+        counters.plyNodes[ply]++;
+
+        if (state.isTerminal()) {
+            counters.evaluations++;
+            return terminalValue(state, ply);
+        }
+        if (depth == 0 && quiescencePlys > 0) {
+            return quiescenceValue(state, quiescencePlys, ply, alpha, beta);
+        }
+        // the per ply tables end at MAX_PLY, so a search that long stops there as if it had reached its depth
+        if (depth == 0 || ply + 1 >= MAX_PLY) {
+            counters.evaluations++;
+            return state.getUtility();
+        }
+
+        // a previous visit to this state, possibly through a different order of moves, may already bound its value
+        long key = state.getZobristKey();
+        int hashMove = TranspositionTable.NO_MOVE;
+        double originalAlpha = alpha;
+        double originalBeta = beta;
+
+        if (transpositionTable.probe(key, entry)) {
+            counters.tableHits++;
+            hashMove = entry.getBestMove();
+
+            if (entry.getDepth() >= depth) {
+                double storedValue = fromTable(entry.getValue(), ply);
+                switch (entry.getBound()) {
+                    case TranspositionTable.EXACT:
+                        counters.tableCutoffs++;
+                        return storedValue;
+                    case TranspositionTable.LOWER_BOUND:
+                        alpha = Math.max(alpha, storedValue);
+                        break;
+                    case TranspositionTable.UPPER_BOUND:
+                        beta = Math.min(beta, storedValue);
+                        break;
+                }
+
+                if (beta <= alpha) {
+                    counters.tableCutoffs++;
+                    return storedValue;
+                }
+            }
+        }
+
+        int moveCount = generateMoves(state, ply, hashMove);
+        if (moveCount == 0) {
+            // no legal moves, so this is a leaf as well
+            counters.evaluations++;
+            return state.getUtility();
+        }
+
+        boolean maxNode = state.getMaxNode();
+        double value = maxNode ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        int bestMove = TranspositionTable.NO_MOVE;
+
+        // the children are leaves when this is the last action of the last turn
+        boolean frontier = futilityPruning && depth == 1
+                && (!unitTree || state.getActingUnit() == plyMoverCount[ply] - 1);
+        double futilityValue = 0;
+        if (frontier) {
+            double swing = state.quietMoveSwing(unitTree ? 1 : plyMoverCount[ply]);
+            futilityValue = maxNode ? state.getUtility() + swing : state.getUtility() - swing;
+        }
+        int quietMoves = 0;
+
+        for (int i = 0; i < moveCount; i++) {
+            int move = nextMove(ply, i, moveCount);
+            boolean quiet = (frontier || reductionMoves > 0) && isQuiet(ply, move);
+
+            if (quiet && frontier && (maxNode ? futilityValue <= alpha : futilityValue >= beta)) {
+                // no quiet move can do better than futilityValue, which is already outside the window
+                counters.futilityPrunes++;
+                value = maxNode ? Math.max(value, futilityValue) : Math.min(value, futilityValue);
+                continue;
+            }
+
+            apply(state, move);
+            int childDepth = childDepth(state, depth);
+            double childValue = Double.NaN;
+            if (quiet) {
+                quietMoves++;
+            }
+            if (quiet && reductionMoves > 0 && quietMoves > reductionMoves && childDepth >= 2
+                    && i >= placedMoves[ply]) {
+                counters.reductions++;
+                childValue = nullWindowValue(state, childDepth - 1, ply + 1, alpha, beta, maxNode);
+                if (maxNode ? childValue > alpha : childValue < beta) {
+                    // the reduced search couldn't show the move is worse, so search it properly
+                    counters.reSearches++;
+                    childValue = Double.NaN;
+                }
+            }
+            if (Double.isNaN(childValue)) {
+                childValue = principalVariation && i > 0
+                        ? scoutValue(state, childDepth, ply + 1, alpha, beta, maxNode)
+                        : alphaBetaValue(state, childDepth, ply + 1, alpha, beta);
+            }
+            undo(state, move);
+
+            if (maxNode) {
+                if (childValue > value) {
+                    value = childValue;
+                    bestMove = move;
+                }
+                alpha = Math.max(alpha, value);
+            } else {
+                if (childValue < value) {
+                    value = childValue;
+                    bestMove = move;
+                }
+                beta = Math.min(beta, value);
+            }
+
+            if (beta <= alpha) {
+                counters.cutoffs++;
+                if (i == 0) {
+                    counters.firstMoveCutoffs++;
+                }
+                if (unitTree) {
+                    ordering.recordUnitCutoff(ply, depth, maxNode, state.getActingUnit(), move);
+                } else {
+                    ordering.recordCutoff(ply, depth, maxNode, move, state.endMover() - state.firstMover());
+                }
+                break;
+            }
+        }
+
+        byte bound;
+        if (value <= originalAlpha) {
+            bound = TranspositionTable.UPPER_BOUND;
+        } else if (value >= originalBeta) {
+            bound = TranspositionTable.LOWER_BOUND;
+        } else {
+            bound = TranspositionTable.EXACT;
+        }
+        transpositionTable.store(key, depth, toTable(value, ply), bound, bestMove);
+
+        return value;
+    }
+
+    /**
+     * @param state A state where one side has been wiped out
+     * @param ply   The number of plys from the root to the state
+     * @return The value of the win or loss, nearer zero the further it is from the root
+     */
+    static double terminalValue(SearchState state, int ply) {
+        return state.footmenWin() ? WIN_VALUE - ply : -(WIN_VALUE - ply);
+    }
+
+    /**
+     * @param value A value found by the search
+     * @return true if the value is a win or loss the search has seen through to the end, not a utility
+     */
+    static boolean isDecided(double value) {
+        return Math.abs(value) >= WIN_VALUE - MAX_PLY;
+    }
+
+    /**
+     * @param value A value relative to the root
+     * @param ply   The ply of the state it belongs to
+     * @return The value to store for the state, with a win or loss counted from the state instead of the root
+     */
+    private static double toTable(double value, int ply) {
+        if (!isDecided(value)) {
+            return value;
+        }
+        return value > 0 ? value + ply : value - ply;
+    }
+
+    /**
+     * @param value A value from the transposition table
+     * @param ply   The ply of the state it belongs to
+     * @return The value relative to the root, the reverse of toTable
+     */
+    private static double fromTable(double value, int ply) {
+        if (!isDecided(value)) {
+            return value;
+        }
+        return value > 0 ? value - ply : value + ply;
+    }
+
+    /**
+     * Searches only attacks from a leaf, letting the side to move stand pat on the utility instead. The transposition
+     * table isn't used, since these nodes are cheap and their values depend on how many plys of attacks are left.
+     * @param state     The state to search from, left unchanged on return
+     * @param remaining The number of plys of attacks left
+     * @param ply       The number of plys from the root to this state
+     * @param alpha     The current best value for the maximizing node from this node to the root
+     * @param beta      The current best value for the minimizing node from this node to the root
+     * @return The value of this state
+     */
+    private double quiescenceValue(SearchState state, int remaining, int ply, double alpha, double beta) {
+        clock.check();
+        counters.evaluations++;
+        if (state.isTerminal()) {
+            return terminalValue(state, ply);
+        }
+        double standPat = state.getUtility();
+        if (remaining == 0 || ply + 1 >= MAX_PLY) {
+            return standPat;
+        }
+
+        boolean maxNode = state.getMaxNode();
+        if (maxNode ? standPat >= beta : standPat <= alpha) {
+            return standPat;
+        }
+        if (maxNode) {
+            alpha = Math.max(alpha, standPat);
+        } else {
+            beta = Math.min(beta, standPat);
+        }
+
+        generator.resetAttacks(state);
+        int[] plyMoves = plyMoveList(ply, generator.size());
+        int moveCount = 0;
+        while (generator.hasNext()) {
+            plyMoves[moveCount++] = generator.next();
+        }
+        counters.movesGenerated += moveCount;
+
+        double value = standPat;
+        for (int i = 0; i < moveCount; i++) {
+            int move = plyMoves[i];
+            state.apply(move);
+            counters.nodes++;
+            counters.quiescenceNodes++;
+            counters.plyNodes[ply + 1]++;
+            double childValue = quiescenceValue(state, remaining - 1, ply + 1, alpha, beta);
+            state.undo(move);
+
+            if (maxNode) {
+                value = Math.max(value, childValue);
+                alpha = Math.max(alpha, value);
+            } else {
+                value = Math.min(value, childValue);
+                beta = Math.min(beta, value);
+            }
+            if (beta <= alpha) {
+                counters.cutoffs++;
+                if (i == 0) {
+                    counters.firstMoveCutoffs++;
+                }
+                break;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Searches a move after the first with a null window, and again with the full window only if the null window
+     * search finds it is better than the moves before it.
+     * @param state The state after the move
+     * @param depth The remaining number of plys under the state
+     * @param ply   The number of plys from the root to the state
+     * @param alpha         The alpha of the parent
+     * @param beta          The beta of the parent
+     * @param parentMaxNode Whether the footmen made the move
+     * @return The value of the state, or a bound on it that shows it is no better than the moves before it
+     */
+    public double scoutValue(SearchState state, int depth, int ply, double alpha, double beta,
+                             boolean parentMaxNode) {
+        double value = nullWindowValue(state, depth, ply, alpha, beta, parentMaxNode);
+        return value > alpha && value < beta ? alphaBetaValue(state, depth, ply, alpha, beta) : value;
+    }
+
+    /**
+     * Searches a move with a null window at the parent's alpha if the footmen made it, or at its beta if the
+     * archers did, which only shows whether the move is better than the moves before it
+     * @param state         The state after the move
+     * @param depth         The remaining number of plys under the state
+     * @param ply           The number of plys from the root to the state
+     * @param alpha         The alpha of the parent
+     * @param beta          The beta of the parent
+     * @param parentMaxNode Whether the footmen made the move
+     * @return The value of the state if it is no better than the moves before it, otherwise a bound showing it is
+     */
+    private double nullWindowValue(SearchState state, int depth, int ply, double alpha, double beta,
+                                   boolean parentMaxNode) {
+        return parentMaxNode
+                ? alphaBetaValue(state, depth, ply, alpha, Math.nextUp(alpha))
+                : alphaBetaValue(state, depth, ply, Math.nextDown(beta), beta);
+    }
+
+    /**
+     * @param ply  The ply the move was generated at
+     * @param move A joint move, or one unit's action code in unit tree mode
+     * @return true if no unit attacks in the move
+     */
+    private boolean isQuiet(int ply, int move) {
+        int moverCount = unitTree ? 1 : plyMoverCount[ply];
+        for (int unit = 0; unit < moverCount; unit++) {
+            int code = (move >>> (unit * SearchState.BITS_PER_UNIT)) & SearchState.ACTION_MASK;
+            if (code >= SearchState.FIRST_ATTACK && code != SearchState.IDLE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Plays a move of the kind this searcher's tree is made of
+     * @param state The state
+     * @param move  A joint move, or one unit's action code in unit tree mode
+     */
+    public void apply(SearchState state, int move) {
+        if (unitTree) {
+            state.applyUnit(move);
+        } else {
+            state.apply(move);
+        }
+    }
+
+    /**
+     * Takes back a move played with apply
+     * @param state The state
+     * @param move  The move, which must be the last one applied
+     */
+    public void undo(SearchState state, int move) {
+        if (unitTree) {
+            state.undoUnit(move);
+        } else {
+            state.undo(move);
+        }
+    }
+
+    /**
+     * @param child The state just reached by apply
+     * @param depth The remaining depth of its parent
+     * @return The remaining depth of the child, which is only less than the parent's once the turn has passed
+     */
+    public int childDepth(SearchState child, int depth) {
+        return unitTree && child.getActingUnit() != 0 ? depth : depth - 1;
+    }
+
+    /**
+     * Generates the moves of a state into the ply's move list, with the move from the transposition table and then
+     * the ply's killer moves at the front.
+     * <p>
+     * The rest of the moves are not scored or sorted here. nextMove scores them the first time it gets past the
+     * hash move and killers, then picks the best remaining one each time it is called, so a cutoff by one of the
+     * first few moves doesn't pay for ordering the rest.
+     *
+     * @param state    The state
+     * @param ply      The ply of the state
+     * @param hashMove The best move from the transposition table, or NO_MOVE
+     * @return The number of moves
+     */
+    public int generateMoves(SearchState state, int ply, int hashMove) {
+        ordering.startSearch(transpositionTable.getGeneration(), unitTree ? state.getUnitCount() : 2);
+        int size = MoveGenerator.MAX_CODES;
+        if (!unitTree) {
+            generator.reset(state);
+            size = generator.size();
+        }
+
+        int[] plyMoves = plyMoveList(ply, size);
+
+        int count = 0;
+        if (unitTree) {
+            count = generator.unitCodes(state, plyMoves);
+        } else {
+            while (generator.hasNext()) {
+                plyMoves[count++] = generator.next();
+            }
+        }
+
+        int placed = placeFirst(plyMoves, 0, count, hashMove);
+        for (int i = 0; i < MoveOrdering.KILLERS_PER_PLY; i++) {
+            placed = placeFirst(plyMoves, placed, count, ordering.getKiller(ply, i));
+        }
+
+        counters.movesGenerated += count;
+        placedMoves[ply] = placed;
+        scored[ply] = false;
+        plyMaxNode[ply] = state.getMaxNode();
+        plyMoverCount[ply] = state.endMover() - state.firstMover();
+        plyActingUnit[ply] = state.getActingUnit();
+        return count;
+    }
+
+    /**
+     * @param ply  The ply
+     * @param size The number of moves the list must hold
+     * @return The ply's move list, grown if it is too short
+     */
+    private int[] plyMoveList(int ply, int size) {
+        if (moves[ply] == null || moves[ply].length < size) {
+            moves[ply] = new int[Math.max(size, 32)];
+            scores[ply] = new int[moves[ply].length];
+        }
+        return moves[ply];
+    }
+
+    /**
+     * Moves a move to the given position if it is among the moves after it
+     * @param plyMoves The moves
+     * @param position The position to put the move in
+     * @param count    The number of moves
+     * @param move     The move, or NO_MOVE
+     * @return The next free position at the front of the list
+     */
+    private static int placeFirst(int[] plyMoves, int position, int count, int move) {
+        if (move == TranspositionTable.NO_MOVE) {
+            return position;
+        }
+        for (int i = position; i < count; i++) {
+            if (plyMoves[i] == move) {
+                plyMoves[i] = plyMoves[position];
+                plyMoves[position] = move;
+                return position + 1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Returns the index-th move of the ply in order. The hash move and killers come first, then the best of the
+     * remaining moves is moved into place.
+     * @param ply   The ply
+     * @param index The number of moves already returned
+     * @param count The number of moves generated
+     * @return The move
+     */
+    public int nextMove(int ply, int index, int count) {
+        int[] plyMoves = moves[ply];
+        if (index < placedMoves[ply]) {
+            return plyMoves[index];
+        }
+
+        int[] plyScores = scores[ply];
+        if (!scored[ply]) {
+            for (int i = index; i < count; i++) {
+                plyScores[i] = unitTree
+                        ? ordering.scoreUnit(plyMaxNode[ply], plyActingUnit[ply], plyMoves[i])
+                        : ordering.score(plyMaxNode[ply], plyMoves[i], plyMoverCount[ply]);
+            }
+            scored[ply] = true;
+        }
+
+        int best = index;
+        for (int i = index + 1; i < count; i++) {
+            if (plyScores[i] > plyScores[best]) {
+                best = i;
+            }
+        }
+
+        int move = plyMoves[best];
+        plyMoves[best] = plyMoves[index];
+        plyMoves[index] = move;
+
+        int score = plyScores[best];
+        plyScores[best] = plyScores[index];
+        plyScores[index] = score;
+
+        return move;
+    }
+
+    /**
+     * Puts all of the ply's moves in order and copies them, for handing to other threads.
+     * @param ply   The ply
+     * @param count The number of moves generated
+     * @return The ordered moves
+     */
+    public int[] sortedMoves(int ply, int count) {
+        for (int i = 0; i < count; i++) {
+            nextMove(ply, i, count);
+        }
+        return Arrays.copyOf(moves[ply], count);
+    }
+
+    /**
+     * Forgets the killers and history learned so far, so the next search orders its moves as a fresh searcher would
+     */
+    public void clearMoveOrdering() {
+        ordering.clear();
+    }
+
+    /**
+     * Counts a root whose children the caller searches itself, rather than through alphaBetaValue
+     */
+    void countRoot() {
+        counters.nodes++;
+        counters.plyNodes[0]++;
+    }
+
+    /**
+     * @return The number of states this searcher has searched since its counters were last reset
+     */
+    public long getNodeCount() {
+        return counters.nodes;
+    }
+
+    /**
+     * @return What this searcher has done since its counters were last reset, updated as it searches
+     */
+    SearchCounters getCounters() {
+        return counters;
+    }
+}
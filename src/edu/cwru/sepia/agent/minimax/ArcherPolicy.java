@@ -0,0 +1,63 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chooses the archers' moves when a game is played by {@link MatchSimulator} instead of by SEPIA.
+ */
+public interface ArcherPolicy {
+
+    /**
+     * Chooses the archers' move
+     * @param state The current state, with the archers to move
+     * @return One of the state's children, or null if the archers can't do anything
+     */
+    GameStateChild chooseChild(GameState state);
+
+    /**
+     * @param random The source of the choices
+     * @return A policy that picks any legal move, each equally likely
+     */
+    static ArcherPolicy random(Random random) {
+        return state -> {
+            List<GameStateChild> children = state.getChildren();
+            return children.isEmpty() ? null : children.get(random.nextInt(children.size()));
+        };
+    }
+
+    /**
+     * @return A policy that picks the move leaving the footmen with the lowest utility, looking one move ahead. The
+     *         utility always uses the default weights, so the archers play the same whatever the footmen's weights.
+     */
+    static ArcherPolicy greedy() {
+        return state -> {
+            GameStateChild best = null;
+            double bestUtility = Double.POSITIVE_INFINITY;
+            for (GameStateChild child : state.getChildren()) {
+                double utility = child.state.getUtility(EvaluationWeights.DEFAULT);
+                if (utility < bestUtility) {
+                    bestUtility = utility;
+                    best = child;
+                }
+            }
+            return best;
+        };
+    }
+
+    /**
+     * @param name random or greedy
+     * @param seed The seed for the policies that make random choices
+     * @return The named policy
+     */
+    static ArcherPolicy forName(String name, long seed) {
+        switch (name) {
+            case "random":
+                return random(new Random(seed));
+            case "greedy":
+                return greedy();
+            default:
+                throw new IllegalArgumentException("Unknown archer policy " + name);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * One bit per square of the map, packed into longs.
+ * <p>
+ * Used for the obstacles, which are built once per map, and for the squares occupied by units, which the search
+ * updates as units move. Checking a square is a single bit test either way.
+ */
+public class BitGrid {
+
+    private final int xExtent;
+    private final int yExtent;
+    private final long[] words;
+
+    /**
+     * Creates an empty grid
+     * @param xExtent The width of the map
+     * @param yExtent The height of the map
+     */
+    public BitGrid(int xExtent, int yExtent) {
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.words = new long[(xExtent * yExtent + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    private BitGrid(BitGrid other) {
+        this.xExtent = other.xExtent;
+        this.yExtent = other.yExtent;
+        this.words = other.words.clone();
+    }
+
+    /**
+     * @return An independent copy of this grid
+     */
+    public BitGrid copy() {
+        return new BitGrid(this);
+    }
+
+    /**
+     * Checks a square. The square must be on the map.
+     * @param x The x coordinate of the square
+     * @param y The y coordinate of the square
+     * @return true if the square's bit is set
+     */
+    public boolean get(int x, int y) {
+        int square = y * xExtent + x;
+        return (words[square >>> 6] & (1L << square)) != 0;
+    }
+
+    public void set(int x, int y) {
+        int square = y * xExtent + x;
+        words[square >>> 6] |= 1L << square;
+    }
+
+    public void clear(int x, int y) {
+        int square = y * xExtent + x;
+        words[square >>> 6] &= ~(1L << square);
+    }
+
+    /**
+     * Checks if a location is on the map
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @return true if the location is inside the map
+     */
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < xExtent && y < yExtent;
+    }
+
+    public int getXExtent() {
+        return xExtent;
+    }
+
+    public int getYExtent() {
+        return yExtent;
+    }
+}
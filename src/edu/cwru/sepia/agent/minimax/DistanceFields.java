@@ -0,0 +1,236 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Path distances around the obstacles of one map.
+ * <p>
+ * The obstacles never change during a game, so the walking distance from every square to a target square only has
+ * to be found once. The first time a target is asked for, a breadth first search from it fills in a distance field
+ * covering the whole map; every later lookup for that target is a single array read. In practice the targets are
+ * the archers, so a new field is only built when an archer steps onto a square it hasn't stood on before.
+ * <p>
+ * Units are not treated as obstacles, the same as the A* search this replaces.
+ * <p>
+ * A field is as big as the map, so only a bounded number of them are kept. When a new one is needed and the cache is
+ * full, the CLOCK policy picks one to drop: a hand sweeps round the cached fields, skipping and clearing those used
+ * since it last passed, and drops the first one that wasn't. A lookup only sets a flag, so there is no upkeep per
+ * search node. Each game builds its own fields, so separate games never share a cache.
+ */
+public class DistanceFields {
+
+    public static final int UNREACHABLE = -1;
+
+    /**
+     * Memory the cached fields may take by default, in bytes.
+     */
+    private static final long DEFAULT_CACHE_BYTES = 16L << 20;
+
+    private static final int NO_GOAL = -1;
+
+    private final int xExtent;
+    private final int yExtent;
+    private final BitGrid obstacles;
+
+    /**
+     * The distance field for each target square, indexed by square, or null if it isn't cached. Shared between
+     * threads.
+     */
+    private final AtomicReferenceArray<int[]> fields;
+
+    /**
+     * For each target square, whether its field has been used since the clock hand last passed it. Written without
+     * synchronization, since a lost update only makes the eviction choice a little less accurate.
+     */
+    private final boolean[] referenced;
+
+    /**
+     * The goal square of each cached field, in the order the clock hand visits them, NO_GOAL for an unused slot.
+     */
+    private final int[] cachedGoals;
+    private int hand;
+
+    /**
+     * Counted without synchronization to keep lookups cheap, so may miss a few when several threads search at once.
+     */
+    private long hits;
+
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates the distance fields for a map, with the default memory limit. No fields are built until they are asked
+     * for.
+     * @param obstacles The obstacles on the map
+     */
+    public DistanceFields(BitGrid obstacles) {
+        this(obstacles, (int) Math.min(Integer.MAX_VALUE,
+                DEFAULT_CACHE_BYTES / ((long) obstacles.getXExtent() * obstacles.getYExtent() * Integer.BYTES)));
+    }
+
+    /**
+     * Creates the distance fields for a map. No fields are built until they are asked for.
+     * @param obstacles The obstacles on the map
+     * @param capacity  The most fields to keep at once, at least 1
+     */
+    public DistanceFields(BitGrid obstacles, int capacity) {
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.obstacles = obstacles;
+        this.fields = new AtomicReferenceArray<>(xExtent * yExtent);
+        this.referenced = new boolean[xExtent * yExtent];
+        this.cachedGoals = new int[Math.max(1, Math.min(capacity, xExtent * yExtent))];
+        Arrays.fill(cachedGoals, NO_GOAL);
+    }
+
+    /**
+     * Returns the length of the shortest path between two squares
+     * @param fromX The x coordinate of the start
+     * @param fromY The y coordinate of the start
+     * @param toX   The x coordinate of the goal
+     * @param toY   The y coordinate of the goal
+     * @return The number of steps from start to goal, or UNREACHABLE
+     */
+    public int distance(int fromX, int fromY, int toX, int toY) {
+        return field(toX, toY)[square(fromX, fromY)];
+    }
+
+    /**
+     * Returns the distance field of a goal square, building it if it isn't cached.
+     * @param x The x coordinate of the goal
+     * @param y The y coordinate of the goal
+     * @return The number of steps from each square to the goal, or UNREACHABLE
+     */
+    private int[] field(int x, int y) {
+        int goal = square(x, y);
+        int[] field = fields.get(goal);
+        if (field == null) {
+            return load(goal);
+        }
+        hits++;
+        if (!referenced[goal]) {
+            referenced[goal] = true;
+        }
+        return field;
+    }
+
+    /**
+     * Builds a field and caches it, dropping another if the cache is full. A field that is dropped while another
+     * thread is still reading it stays valid for that thread, since fields are never changed once built.
+     * @param goal The goal square
+     * @return The field
+     */
+    private synchronized int[] load(int goal) {
+        int[] field = fields.get(goal);
+        if (field != null) {
+            // built by another thread while this one waited
+            hits++;
+            return field;
+        }
+        misses++;
+
+        while (cachedGoals[hand] != NO_GOAL && referenced[cachedGoals[hand]]) {
+            referenced[cachedGoals[hand]] = false;
+            hand = (hand + 1) % cachedGoals.length;
+        }
+        if (cachedGoals[hand] != NO_GOAL) {
+            fields.set(cachedGoals[hand], null);
+            evictions++;
+        }
+
+        field = buildField(goal);
+        cachedGoals[hand] = goal;
+        hand = (hand + 1) % cachedGoals.length;
+        referenced[goal] = true;
+        fields.set(goal, field);
+        return field;
+    }
+
+    /**
+     * Breadth first search outwards from the goal square.
+     * @param goal The goal square
+     * @return The number of steps from each square to the goal, or UNREACHABLE
+     */
+    private int[] buildField(int goal) {
+        int[] field = new int[xExtent * yExtent];
+        Arrays.fill(field, UNREACHABLE);
+
+        int[] queue = new int[field.length];
+        int head = 0;
+        int tail = 0;
+
+        field[goal] = 0;
+        queue[tail++] = goal;
+
+        while (head < tail) {
+            int square = queue[head++];
+            int x = square % xExtent;
+            int y = square / xExtent;
+            int distance = field[square] + 1;
+
+            tail = visit(field, queue, tail, x, y - 1, distance);
+            tail = visit(field, queue, tail, x, y + 1, distance);
+            tail = visit(field, queue, tail, x + 1, y, distance);
+            tail = visit(field, queue, tail, x - 1, y, distance);
+        }
+
+        return field;
+    }
+
+    /**
+     * Adds a neighbouring square to the search if it is open and hasn't been reached yet.
+     * @return The new tail of the queue
+     */
+    private int visit(int[] field, int[] queue, int tail, int x, int y, int distance) {
+        if (!obstacles.inBounds(x, y) || obstacles.get(x, y)) {
+            return tail;
+        }
+        int square = square(x, y);
+        if (field[square] != UNREACHABLE) {
+            return tail;
+        }
+        field[square] = distance;
+        queue[tail] = square;
+        return tail + 1;
+    }
+
+    /**
+     * @return The number of lookups that found their field already built
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups that had to build their field
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of fields dropped to make room for others
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The most fields kept at once
+     */
+    public int getCapacity() {
+        return cachedGoals.length;
+    }
+
+    /**
+     * @return The obstacles of the map these fields were built for
+     */
+    public BitGrid getObstacles() {
+        return obstacles;
+    }
+
+    private int square(int x, int y) {
+        return y * xExtent + x;
+    }
+}
@@ -0,0 +1,234 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * The features of GameState.getUtility, updated by the difference between the units now and the units at the last
+ * evaluation instead of being recomputed at every leaf.
+ * <p>
+ * The leaves the search evaluates one after another are usually siblings or cousins, so only a few units differ
+ * between them. A move only changes the terms that involve the unit that moved: its row and column matches with the
+ * other footmen, its distance to the other archers and the walls, or its path distances to the units of the other
+ * side. A hit only changes a health sum. The terms are brought up to date when the utility is asked for rather than
+ * on every apply and undo, since most of the moves the search makes are taken back before a leaf is reached.
+ * <p>
+ * The path distance of every footman and archer pair is kept, so when a unit moves only its own pairs are looked up
+ * again before finding each footman's closest archer.
+ */
+class EvaluationTerms {
+
+    private final GameState origin;
+    private final int footmanCount;
+    private final int unitCount;
+    private final int archerCount;
+
+    /**
+     * The units the terms were last brought up to date with
+     */
+    private final int[] synced;
+
+    private int footmanHealth;
+    private int archerHealth;
+    private int closestArcherDistance;
+    private int archerSpread;
+    private int wallDistance;
+    private int sameRow;
+    private int sameColumn;
+
+    /**
+     * The path distance between each footman and each archer, archerCount entries per footman
+     */
+    private final int[] pathDistance;
+
+    /**
+     * The term each footman adds to closestArcherDistance
+     */
+    private final int[] closest;
+
+    /**
+     * Computes the terms from scratch
+     * @param origin The state whose map and unit stats the units belong to
+     * @param units  The units, laid out like GameState's units array
+     */
+    EvaluationTerms(GameState origin, int[] units) {
+        this.origin = origin;
+        this.footmanCount = origin.getFootmanCount();
+        this.unitCount = origin.getUnitCount();
+        this.archerCount = unitCount - footmanCount;
+        this.synced = units.clone();
+        this.pathDistance = new int[footmanCount * archerCount];
+        this.closest = new int[footmanCount];
+
+        for (int footman = 0; footman < footmanCount; footman++) {
+            footmanHealth += Math.max(0, health(footman));
+            for (int other = footman + 1; other < footmanCount; other++) {
+                sameRow    += x(footman) == x(other) ? 2 : 0;
+                sameColumn += y(footman) == y(other) ? 2 : 0;
+            }
+            for (int archer = footmanCount; archer < unitCount; archer++) {
+                updatePathDistance(footman, archer);
+            }
+            closest[footman] = closestTerm(footman);
+            closestArcherDistance += closest[footman];
+        }
+
+        for (int archer = footmanCount; archer < unitCount; archer++) {
+            archerHealth += Math.max(0, health(archer));
+            for (int other = archer + 1; other < unitCount; other++) {
+                archerSpread += 2 * taxicab(archer, x(other), y(other));
+            }
+            wallDistance += origin.distanceToWalls(x(archer), y(archer));
+        }
+    }
+
+    private EvaluationTerms(EvaluationTerms other) {
+        this.origin = other.origin;
+        this.footmanCount = other.footmanCount;
+        this.unitCount = other.unitCount;
+        this.archerCount = other.archerCount;
+        this.synced = other.synced.clone();
+        this.footmanHealth = other.footmanHealth;
+        this.archerHealth = other.archerHealth;
+        this.closestArcherDistance = other.closestArcherDistance;
+        this.archerSpread = other.archerSpread;
+        this.wallDistance = other.wallDistance;
+        this.sameRow = other.sameRow;
+        this.sameColumn = other.sameColumn;
+        this.pathDistance = other.pathDistance.clone();
+        this.closest = other.closest.clone();
+    }
+
+    /**
+     * @return An independent copy of these terms
+     */
+    EvaluationTerms copy() {
+        return new EvaluationTerms(this);
+    }
+
+    /**
+     * Brings the terms up to date with the units and combines them
+     * @param units The units, from the same game as the ones the terms were created with
+     * @return The same value GameState.evaluate gives for the units, with the origin's weights
+     */
+    double getUtility(int[] units) {
+        for (int slot = 0; slot < unitCount; slot++) {
+            int base = slot * GameState.UNIT_FIELDS;
+            if (units[base + GameState.X] != synced[base + GameState.X]
+                    || units[base + GameState.Y] != synced[base + GameState.Y]) {
+                unitMoved(slot, units[base + GameState.X], units[base + GameState.Y]);
+            }
+            if (units[base + GameState.HEALTH] != synced[base + GameState.HEALTH]) {
+                healthChanged(slot, units[base + GameState.HEALTH]);
+            }
+        }
+
+        EvaluationWeights weights = origin.getWeights();
+        double utility = 0;
+        utility -= weights.archerHealth * (archerHealth * footmanCount);
+        utility += weights.footmanHealth * footmanHealth;
+        utility -= weights.archerDistance * closestArcherDistance;
+        utility -= weights.archerSpread * archerSpread;
+        utility -= weights.wallDistance * wallDistance;
+        utility -= weights.sameRow * sameRow;
+        utility -= weights.sameColumn * sameColumn;
+        return utility;
+    }
+
+    /**
+     * Moves a unit and updates the terms that involve it
+     * @param slot The slot of the unit
+     * @param newX The x coordinate it moved to
+     * @param newY The y coordinate it moved to
+     */
+    private void unitMoved(int slot, int newX, int newY) {
+        int oldX = x(slot);
+        int oldY = y(slot);
+        synced[slot * GameState.UNIT_FIELDS + GameState.X] = newX;
+        synced[slot * GameState.UNIT_FIELDS + GameState.Y] = newY;
+
+        if (slot < footmanCount) {
+            for (int other = 0; other < footmanCount; other++) {
+                if (other != slot) {
+                    sameRow    += 2 * ((newX == x(other) ? 1 : 0) - (oldX == x(other) ? 1 : 0));
+                    sameColumn += 2 * ((newY == y(other) ? 1 : 0) - (oldY == y(other) ? 1 : 0));
+                }
+            }
+            for (int archer = footmanCount; archer < unitCount; archer++) {
+                updatePathDistance(slot, archer);
+            }
+            updateClosest(slot);
+        } else {
+            for (int other = footmanCount; other < unitCount; other++) {
+                if (other != slot) {
+                    archerSpread += 2 * (taxicab(other, newX, newY) - taxicab(other, oldX, oldY));
+                }
+            }
+            wallDistance += origin.distanceToWalls(newX, newY) - origin.distanceToWalls(oldX, oldY);
+            for (int footman = 0; footman < footmanCount; footman++) {
+                updatePathDistance(footman, slot);
+                updateClosest(footman);
+            }
+        }
+    }
+
+    /**
+     * Changes a unit's health and updates the health sums, which count a killed unit as having none left
+     * @param slot      The slot of the unit
+     * @param newHealth Its new health
+     */
+    private void healthChanged(int slot, int newHealth) {
+        int change = Math.max(0, newHealth) - Math.max(0, health(slot));
+        synced[slot * GameState.UNIT_FIELDS + GameState.HEALTH] = newHealth;
+
+        if (slot < footmanCount) {
+            footmanHealth += change;
+        } else {
+            archerHealth += change;
+        }
+    }
+
+    private void updatePathDistance(int footman, int archer) {
+        pathDistance[footman * archerCount + archer - footmanCount] =
+                origin.getDistanceFields().distance(x(footman), y(footman), x(archer), y(archer));
+    }
+
+    private void updateClosest(int footman) {
+        int term = closestTerm(footman);
+        closestArcherDistance += term - closest[footman];
+        closest[footman] = term;
+    }
+
+    /**
+     * The squares between a footman and its closest archer, the same as GameState.evaluate
+     * @param footman The slot of the footman
+     * @return The footman's part of the distance feature
+     */
+    private int closestTerm(int footman) {
+        int closestPath = Integer.MAX_VALUE;
+        int closestTaxicab = Integer.MAX_VALUE;
+        for (int archer = footmanCount; archer < unitCount; archer++) {
+            int pathDist = pathDistance[footman * archerCount + archer - footmanCount];
+            if (pathDist != DistanceFields.UNREACHABLE) {
+                closestPath = Math.min(closestPath, pathDist);
+            }
+            closestTaxicab = Math.min(closestTaxicab, taxicab(footman, x(archer), y(archer)));
+        }
+
+        int closest = closestPath != Integer.MAX_VALUE ? closestPath : closestTaxicab;
+        return closest != Integer.MAX_VALUE ? Math.max(0, closest - 1) : 0;
+    }
+
+    private int taxicab(int slot, int x, int y) {
+        return Math.abs(x(slot) - x) + Math.abs(y(slot) - y);
+    }
+
+    private int x(int slot) {
+        return synced[slot * GameState.UNIT_FIELDS + GameState.X];
+    }
+
+    private int y(int slot) {
+        return synced[slot * GameState.UNIT_FIELDS + GameState.Y];
+    }
+
+    private int health(int slot) {
+        return synced[slot * GameState.UNIT_FIELDS + GameState.HEALTH];
+    }
+}
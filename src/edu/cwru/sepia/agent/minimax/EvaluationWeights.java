@@ -0,0 +1,138 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * The weights GameState.getUtility gives its features, as a vector the agents load when they start and
+ * {@link WeightTuner} searches over. The defaults are the weights the evaluation was written with.
+ * <p>
+ * A weight file is a properties file with one line per weight, for example archerDistance=5. Weights missing from
+ * the file keep their default.
+ */
+public class EvaluationWeights {
+
+    // Positions of the weights in the vector
+    static final int ARCHER_HEALTH   = 0;
+    static final int FOOTMAN_HEALTH  = 1;
+    static final int ARCHER_DISTANCE = 2;
+    static final int ARCHER_SPREAD   = 3;
+    static final int WALL_DISTANCE   = 4;
+    static final int SAME_ROW        = 5;
+    static final int SAME_COLUMN     = 6;
+    static final int COUNT           = 7;
+
+    private static final String[] NAMES = {
+            "archerHealth", "footmanHealth", "archerDistance", "archerSpread", "wallDistance", "sameRow", "sameColumn"
+    };
+
+    public static final EvaluationWeights DEFAULT = new EvaluationWeights(new double[] {2, 1, 5, 1, 5, 1, 1});
+
+    // The weights again as fields, so the evaluation doesn't index the vector at every leaf
+    final double archerHealth;
+    final double footmanHealth;
+    final double archerDistance;
+    final double archerSpread;
+    final double wallDistance;
+    final double sameRow;
+    final double sameColumn;
+
+    private final double[] vector;
+
+    /**
+     * @param vector COUNT weights, in the order of the position constants
+     */
+    public EvaluationWeights(double[] vector) {
+        if (vector.length != COUNT) {
+            throw new IllegalArgumentException("Expected " + COUNT + " weights, got " + vector.length);
+        }
+        this.vector = vector.clone();
+        this.archerHealth = vector[ARCHER_HEALTH];
+        this.footmanHealth = vector[FOOTMAN_HEALTH];
+        this.archerDistance = vector[ARCHER_DISTANCE];
+        this.archerSpread = vector[ARCHER_SPREAD];
+        this.wallDistance = vector[WALL_DISTANCE];
+        this.sameRow = vector[SAME_ROW];
+        this.sameColumn = vector[SAME_COLUMN];
+    }
+
+    /**
+     * @return The weights, in the order of the position constants
+     */
+    public double[] toArray() {
+        return vector.clone();
+    }
+
+    /**
+     * @param index The position of a weight
+     * @return The name the weight has in a weight file
+     */
+    static String name(int index) {
+        return NAMES[index];
+    }
+
+    /**
+     * Reads a weight file
+     * @param path The file
+     * @return The weights in the file, with the defaults for any it leaves out
+     */
+    public static EvaluationWeights load(Path path) {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read weights " + path, e);
+        }
+
+        double[] vector = DEFAULT.toArray();
+        for (int i = 0; i < COUNT; i++) {
+            String value = properties.getProperty(NAMES[i]);
+            if (value != null) {
+                vector[i] = Double.parseDouble(value.trim());
+            }
+        }
+        return new EvaluationWeights(vector);
+    }
+
+    /**
+     * @param options The agent's options
+     * @return The weights in the file named by the weights option, or the defaults if there is none
+     */
+    static EvaluationWeights fromOptions(SearchOptions options) {
+        String path = options.getString("weights", null);
+        return path == null ? DEFAULT : load(Paths.get(path));
+    }
+
+    /**
+     * Writes these weights as a weight file, replacing the file if it exists
+     * @param path    The file
+     * @param comment A line written at the top of the file
+     */
+    public void save(Path path, String comment) {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("# " + comment + System.lineSeparator());
+            for (int i = 0; i < COUNT; i++) {
+                writer.write(NAMES[i] + "=" + vector[i] + System.lineSeparator());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write weights " + path, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder string = new StringBuilder();
+        for (int i = 0; i < COUNT; i++) {
+            string.append(i > 0 ? " " : "").append(NAMES[i]).append('=')
+                    .append(String.format(Locale.ROOT, "%.3f", vector[i]));
+        }
+        return string.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Chooses the footmen's moves when a game is played by {@link MatchSimulator} instead of by SEPIA. Implemented by
+ * the footmen agents, so the simulator can play any of them.
+ */
+public interface FootmenPolicy {
+
+    /**
+     * Chooses the footmen's move
+     * @param state The current state, with the footmen to move
+     * @return One of the state's children, or a child with no action if the footmen can't do anything
+     */
+    GameStateChild chooseChild(GameState state);
+
+    /**
+     * Forgets everything learned about the previous game, since a new one may be on a different map.
+     */
+    void newGame();
+
+    /**
+     * Changes the weights the agent evaluates states with, from the next move on
+     * @param weights The new weights
+     */
+    void setWeights(EvaluationWeights weights);
+
+    /**
+     * @param name minimax or mcts
+     * @param args The agent's arguments, as given in a GameConfig file
+     * @return The named agent
+     */
+    static FootmenPolicy forName(String name, String[] args) {
+        switch (name) {
+            case "minimax":
+                return new MinimaxAlphaBeta(0, args);
+            case "mcts":
+                return new MonteCarloTreeSearch(0, args);
+            default:
+                throw new IllegalArgumentException("agent must be minimax or mcts, got " + name);
+        }
+    }
+}
@@ -1,14 +1,10 @@
 package edu.cwru.sepia.agent.minimax;
 
 import edu.cwru.sepia.action.Action;
-import edu.cwru.sepia.action.DirectedAction;
-import edu.cwru.sepia.action.TargetedAction;
 import edu.cwru.sepia.environment.model.state.*;
-import edu.cwru.sepia.util.Direction;
 import edu.cwru.sepia.util.Pair;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class stores all of the information the agent
@@ -20,21 +16,63 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class GameState {
 
-    /**
-     * Used for caching distances so that A* does not need to be recalculated every turn.
-     * Key is the location, and value is (distance, time_remaining).
-     */
-    private static Map<Pair<Integer, Integer>, Pair<Integer, Integer>> aStarCache = new ConcurrentHashMap<>();
+    // Layout of a unit record in the units array
+    static final int ID           = 0;
+    static final int X            = 1;
+    static final int Y            = 2;
+    static final int HEALTH       = 3;
+    static final int UNIT_FIELDS  = 4;
+
+    // Layout of a unit record in the unitStats array
+    static final int BASE_HEALTH  = 0;
+    static final int BASIC_ATTACK = 1;
+    static final int RANGE        = 2;
+    static final int STAT_FIELDS  = 3;
 
     private boolean maxNode;
     private int xExtent;
     private int yExtent;
 
-    private List<SimpleUnit> footmen;
-    private List<SimpleUnit> archers;
+    /**
+     * The id, location and health of every unit, UNIT_FIELDS ints per unit. The footmen come first, followed by
+     * the archers. A child state is a clone of this array with the changed fields written over.
+     */
+    private int[] units;
+    private int footmanCount;
+
+    /**
+     * The base health, attack and range of every unit, in the same order as units. These never change during a
+     * game, so every state in the search shares the same array.
+     */
+    private int[] unitStats;
 
     private List<MapLocation> resources;
 
+    /**
+     * Path distances around the resources. Shared by every state of a game, see DistanceFields.
+     */
+    private DistanceFields distanceFields;
+
+    /**
+     * The resources as one bit per square, for checking whether a square is blocked.
+     */
+    private BitGrid obstacles;
+
+    /**
+     * The weights getUtility gives its features. Shared by every state of a game, like the distance fields.
+     */
+    private EvaluationWeights weights = EvaluationWeights.DEFAULT;
+
+    /**
+     * Zobrist key of the unit locations, health and side to move. Used to index the transposition table.
+     */
+    private long zobristKey;
+
+    /**
+     * The children of this state, generated the first time getChildren is called.
+     */
+    private volatile List<GameStateChild> children;
+
     // PUBLIC FUNCTIONS
 
     /**
@@ -59,71 +97,129 @@ public class GameState {
      * @param state Current state of the episode
      */
     public GameState(State.StateView state) {
+        this(state, null);
+    }
+
+    /**
+     * Extracts the state from the SEPIA state view, reusing the distance fields built for earlier turns of the
+     * same game.
+     * @param state          Current state of the episode
+     * @param distanceFields The distance fields of this map, or null to create new ones
+     */
+    public GameState(State.StateView state, DistanceFields distanceFields) {
 
         this.maxNode = true;
 
         this.xExtent = state.getXExtent();
         this.yExtent = state.getYExtent();
 
-        // TODO: Get rid of repeated code
-        List<SimpleUnit> footmen = new ArrayList<>();
-        for (Unit.UnitView unit : state.getUnits(0)) {
-            int id = unit.getID();
-            int x = unit.getXPosition();
-            int y = unit.getYPosition();
-            int baseHealth = unit.getTemplateView().getBaseHealth();
-            int currentHealth = unit.getHP();
-            int basicAttack = unit.getTemplateView().getBasicAttack();
-            int range = unit.getTemplateView().getRange();
-            Queue<Pair<Integer, Integer>> previousLocations= new LinkedList<>();
-            footmen.add(new SimpleUnit(id, x, y, baseHealth, currentHealth, basicAttack, range));
-        }
-        this.footmen = footmen;
-
-        List<SimpleUnit> archers = new ArrayList<>();
-        for (Unit.UnitView unit : state.getUnits(1)) {
-            int id = unit.getID();
-            int x = unit.getXPosition();
-            int y = unit.getYPosition();
-            int baseHealth = unit.getTemplateView().getBaseHealth();
-            int currentHealth = unit.getHP();
-            int basicAttack = unit.getTemplateView().getBasicAttack();
-            int range = unit.getTemplateView().getRange();
-            Queue<Pair<Integer, Integer>> previousLocations= new LinkedList<>();
-            archers.add(new SimpleUnit(id, x, y, baseHealth, currentHealth, basicAttack, range));
-        }
-        this.archers = archers;
+        List<Unit.UnitView> footmen = state.getUnits(0);
+        List<Unit.UnitView> archers = state.getUnits(1);
+
+        this.footmanCount = footmen.size();
+        this.units = new int[(footmen.size() + archers.size()) * UNIT_FIELDS];
+        this.unitStats = new int[(footmen.size() + archers.size()) * STAT_FIELDS];
+
+        int slot = 0;
+        for (Unit.UnitView unit : footmen) {
+            setUnit(slot++, unit);
+        }
+        for (Unit.UnitView unit : archers) {
+            setUnit(slot++, unit);
+        }
 
         List<MapLocation> resources = new ArrayList<>();
         for (ResourceNode.ResourceView view : state.getAllResourceNodes()) {
             resources.add(new MapLocation(view.getXPosition(), view.getYPosition()));
         }
-        this.resources = resources;
-    }
 
-    public GameState(GameState oldGameState, List<SimpleUnit> footmen, List<SimpleUnit> archers) {
-        this.xExtent = oldGameState.getXExtent();
-        this.yExtent = oldGameState.getYExtent();
-        this.resources = oldGameState.getResources();
-        this.maxNode = !oldGameState.maxNode;
+        setMap(resources, distanceFields);
+    }
 
-        this.footmen = footmen;
-        this.archers = archers;
+    /**
+     * Creates the starting state of a game without going through SEPIA, for example from a saved state file.
+     * @param xExtent        The width of the map
+     * @param yExtent        The height of the map
+     * @param footmanCount   The number of footmen, which come first in units
+     * @param units          The units, UNIT_FIELDS ints per unit
+     * @param unitStats      The unit stats, STAT_FIELDS ints per unit
+     * @param resources      The obstacles on the map
+     * @param distanceFields The distance fields of this map, or null to create new ones
+     */
+    GameState(int xExtent, int yExtent, int footmanCount, int[] units, int[] unitStats, List<MapLocation> resources,
+              DistanceFields distanceFields) {
+        this.maxNode = true;
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.footmanCount = footmanCount;
+        this.units = units;
+        this.unitStats = unitStats;
 
-        updateCache();
+        setMap(resources, distanceFields);
     }
 
     /**
-     * Updates the cache. If the time runs out for any entry, removes that entry from the Map.
+     * Sets the obstacles, distance fields and the Zobrist key once the units are in place.
+     * @param resources      The obstacles on the map
+     * @param distanceFields The distance fields of this map, or null to create new ones
      */
-    private void updateCache() {
-        for (Map.Entry<Pair<Integer, Integer>, Pair<Integer, Integer>> entry : GameState.aStarCache.entrySet()) {
-            if (entry.getValue().b - 1 == 0) {
-                GameState.aStarCache.remove(entry.getKey());
-            } else {
-                GameState.aStarCache.put(entry.getKey(), new Pair<>(entry.getValue().a, entry.getValue().b - 1));
+    private void setMap(List<MapLocation> resources, DistanceFields distanceFields) {
+        this.resources = resources;
+        if (distanceFields == null) {
+            BitGrid obstacles = new BitGrid(xExtent, yExtent);
+            for (MapLocation resource : resources) {
+                obstacles.set(resource.x, resource.y);
             }
+            distanceFields = new DistanceFields(obstacles);
         }
+        this.distanceFields = distanceFields;
+        this.obstacles = distanceFields.getObstacles();
+
+        long key = ZobristKeys.MAX_NODE;
+        for (int slot = 0; slot < getUnitCount(); slot++) {
+            key ^= ZobristKeys.unitKey(getId(slot), getX(slot), getY(slot), getHealth(slot));
+        }
+        this.zobristKey = key;
+    }
+
+    /**
+     * Creates a state sharing the map and unit stats of another one.
+     * @param origin     A state from the same game
+     * @param units      The units of the new state
+     * @param maxNode    Whether the footmen are to move
+     * @param zobristKey The key of the new state
+     */
+    GameState(GameState origin, int[] units, boolean maxNode, long zobristKey) {
+        this.xExtent = origin.xExtent;
+        this.yExtent = origin.yExtent;
+        this.resources = origin.resources;
+        this.distanceFields = origin.distanceFields;
+        this.obstacles = origin.obstacles;
+        this.weights = origin.weights;
+        this.unitStats = origin.unitStats;
+        this.footmanCount = origin.footmanCount;
+        this.maxNode = maxNode;
+
+        this.units = units;
+        this.zobristKey = zobristKey;
+    }
+
+    /**
+     * Copies a unit from the SEPIA state into a slot
+     * @param slot The slot to fill
+     * @param unit The unit
+     */
+    private void setUnit(int slot, Unit.UnitView unit) {
+        int base = slot * UNIT_FIELDS;
+        units[base + ID]     = unit.getID();
+        units[base + X]      = unit.getXPosition();
+        units[base + Y]      = unit.getYPosition();
+        units[base + HEALTH] = unit.getHP();
+
+        int statBase = slot * STAT_FIELDS;
+        unitStats[statBase + BASE_HEALTH]  = unit.getTemplateView().getBaseHealth();
+        unitStats[statBase + BASIC_ATTACK] = unit.getTemplateView().getBasicAttack();
+        unitStats[statBase + RANGE]        = unit.getTemplateView().getRange();
     }
 
     /**
@@ -131,7 +227,8 @@ public class GameState {
      *
      * The health of the archers and footmen, the distance between each footman and it's nearest archer. These two are
      * pretty self explanatory, we want to kill the archers and stay alive and we want to be as close to the archers as
-     * possible. The distance is calculated using the aStar algorithm which allows for pathfinding around obstacles.
+     * possible. The distance is the length of the shortest path around the obstacles, read from the map's distance
+     * fields.
      *
      * archDist is the distance between the two archers and wallDist is the distance from the archers to the nearest
      * wall. These are features we want to minimize because having the archers be close together allows us to quickly
@@ -142,11 +239,32 @@ public class GameState {
      * same column or row as another footman. This helps the footmen from following each other when chasing archers
      * and lets them work together better.
      *
+     * The weights of the features are this state's EvaluationWeights.
+     *
      * @return The weighted linear combination of the features
      */
     public double getUtility() {
+        return evaluate(units, weights);
+    }
+
+    /**
+     * Computes the utility with other weights than this state's, see getUtility.
+     * @param weights The weights of the features
+     * @return The weighted linear combination of the features
+     */
+    public double getUtility(EvaluationWeights weights) {
+        return evaluate(units, weights);
+    }
+
+    /**
+     * Computes the utility of a set of units on this state's map, see getUtility.
+     * @param units   The units, laid out like the units array of a state from the same game
+     * @param weights The weights of the features
+     * @return The weighted linear combination of the features
+     */
+    double evaluate(int[] units, EvaluationWeights weights) {
 
-        int utility = 0;
+        double utility = 0;
 
         int archerFeature   = 0;
         int footmanFeature  = 0;
@@ -156,58 +274,64 @@ public class GameState {
         int columnFeature   = 0;
         int rowFeature      = 0;
 
-        // distance to archers is bad
-        // calculate aStar to closest archer
-        for (SimpleUnit footman : footmen) {
-
-            footmanFeature += footman.getCurrentHealth();
+        int archerBase = footmanCount * UNIT_FIELDS;
 
-            int closest = 70000;
-            SimpleUnit closeArch = null;
-            for (SimpleUnit archer: archers) {
-                int newDist = taxicab(footman.getLocation(), archer.getLocation());
-                closeArch = newDist < closest ? archer : closeArch;
-                closest = newDist < closest ? newDist : closest;
+        // distance to archers is bad
+        // find the path distance to the closest archer
+        for (int footman = 0; footman < archerBase; footman += UNIT_FIELDS) {
+            int footmanX = units[footman + X];
+            int footmanY = units[footman + Y];
+
+            // a unit killed during the search has no health left, however far below zero the last attack took it
+            footmanFeature += Math.max(0, units[footman + HEALTH]);
+
+            int closestPath = Integer.MAX_VALUE;
+            int closestTaxicab = Integer.MAX_VALUE;
+            for (int archer = archerBase; archer < units.length; archer += UNIT_FIELDS) {
+                int pathDist = distanceFields.distance(footmanX, footmanY, units[archer + X], units[archer + Y]);
+                if (pathDist != DistanceFields.UNREACHABLE) {
+                    closestPath = Math.min(closestPath, pathDist);
+                }
+                closestTaxicab = Math.min(closestTaxicab,
+                        taxicab(footmanX, footmanY, units[archer + X], units[archer + Y]));
 
-                archerFeature += archer.getCurrentHealth();
+                archerFeature += Math.max(0, units[archer + HEALTH]);
             }
 
-            if (GameState.aStarCache.containsKey(footman.getLocation())) {
-                distanceFeature += GameState.aStarCache.get(footman.getLocation()).a;
-            } else {
-                int distance = aStarDistance(new MapLocation(footman), new MapLocation(closeArch));
-                distanceFeature += distance;
-                GameState.aStarCache.put(footman.getLocation(), new Pair<>(distance, 3));
+            // squares between the footman and the archer; a walled off footman falls back on the taxicab distance
+            int closest = closestPath != Integer.MAX_VALUE ? closestPath : closestTaxicab;
+            if (closest != Integer.MAX_VALUE) {
+                distanceFeature += Math.max(0, closest - 1);
             }
         }
 
         // archer distance from each other
-        for (SimpleUnit archer : archers) {
-            for (SimpleUnit archer2 : archers) {
-                archDistFeature += taxicab(archer.getLocation(), archer2.getLocation());
+        for (int archer = archerBase; archer < units.length; archer += UNIT_FIELDS) {
+            for (int archer2 = archerBase; archer2 < units.length; archer2 += UNIT_FIELDS) {
+                archDistFeature += taxicab(units[archer + X], units[archer + Y], units[archer2 + X], units[archer2 + Y]);
             }
-            wallDistFeature += distanceToWalls(archer);
+            wallDistFeature += distanceToWalls(units[archer + X], units[archer + Y]);
         }
 
         // don't want footmen on same row / column
-        for (SimpleUnit footman : footmen) {
-            for (SimpleUnit footman2 : footmen) {
-                if (!footman.equals(footman2)) {
-                    columnFeature -= footman.y == footman2.y ? 1 : 0;
-                    rowFeature    -= footman.x == footman2.x ? 1 : 0;
+        for (int footman = 0; footman < archerBase; footman += UNIT_FIELDS) {
+            for (int footman2 = 0; footman2 < archerBase; footman2 += UNIT_FIELDS) {
+                if (footman != footman2) {
+                    columnFeature -= units[footman + Y] == units[footman2 + Y] ? 1 : 0;
+                    rowFeature    -= units[footman + X] == units[footman2 + X] ? 1 : 0;
                 }
             }
         }
 
         //add utilities
 
-        utility -= archerFeature * 2;
-        utility += footmanFeature;
-        utility -= distanceFeature * 5;
-        utility -= archDistFeature;
-        utility -= wallDistFeature * 5;
-        utility += rowFeature;
-        utility += columnFeature;
+        utility -= weights.archerHealth * archerFeature;
+        utility += weights.footmanHealth * footmanFeature;
+        utility -= weights.archerDistance * distanceFeature;
+        utility -= weights.archerSpread * archDistFeature;
+        utility -= weights.wallDistance * wallDistFeature;
+        utility += weights.sameRow * rowFeature;
+        utility += weights.sameColumn * columnFeature;
 
         return utility;
     }
@@ -229,292 +353,145 @@ public class GameState {
      * @return All possible actions and their associated resulting game state
      */
     public List<GameStateChild> getChildren() {
-        List<GameStateChild> children;
-
-        if (maxNode) {
-            // footmen
-            children = getGameStateChildren(footmen, archers);
-        } else {
-            // archers
-            children = getGameStateChildren(archers, footmen);
+        // two threads may both generate the children, but they generate the same list so either one can be kept
+        List<GameStateChild> children = this.children;
+        if (children == null) {
+            children = Collections.unmodifiableList(generateChildren());
+            this.children = children;
         }
-
         return children;
     }
 
-    public List<GameStateChild> getGameStateChildren(List<SimpleUnit> units, List<SimpleUnit> enemyUnits) {
-        List<GameStateChild> children = new ArrayList<>();
-        List<List<Action>> unitActionsList = new ArrayList<>();
-        // Calculate all possible actions
-        for (SimpleUnit unit : units) {
-            unitActionsList.add(findAllActionsForUnit(unit, enemyUnits));
-        }
-
-        // Cartesian product of all unit's actions
-        List<List<Action>> actionsList = cartesianProduct(unitActionsList);
-
-        // Get new state from actions
-        for (List<Action> actions : actionsList) {
-            List<SimpleUnit> newEnemyUnits;
-            if (enemyUnits.equals(footmen)) {
-                newEnemyUnits = new ArrayList<>(footmen);
-            } else {
-                newEnemyUnits = new ArrayList<>(archers);
-            }
-
-            List<SimpleUnit> newUnitList = new ArrayList<>();
-            for (Action action : actions) {
-                SimpleUnit unitFromAction = findUnitById(action.getUnitId());
-                Pair<SimpleUnit, SimpleUnit> unitPair = createNewUnitFromAction(unitFromAction, action);
-                newUnitList.add(unitPair.a);
-                newEnemyUnits = createNewEnemyList(unitPair.b, newEnemyUnits);
-            }
-
-            GameState newState;
-            if (enemyUnits.equals(footmen)) {
-                newState = new GameState(this, newEnemyUnits, newUnitList);
-            } else {
-                newState = new GameState(this, newUnitList, newEnemyUnits);
-            }
-
-            Map<Integer, Action> actionMap = new HashMap<>();
-            for (Action action : actions) {
-                actionMap.put(action.getUnitId(), action);
-            }
-
-            children.add(new GameStateChild(actionMap, newState));
-        }
-
-
-        return children;
+    /**
+     * Checks if the game is over in this state: every archer is dead, every footman is dead,
+     * or the side to move has no legal moves.
+     * @return true if this state has no children
+     */
+    public boolean isTerminal() {
+        return allDead(0, footmanCount) || allDead(footmanCount, getUnitCount()) || getChildren().isEmpty();
     }
 
-    // PRIVATE FUNCTIONS
-
     /**
-     * Finds all possible actions for a given unit
-     * @param unit The unit whose actions are being found
-     * @param enemyUnits The enemy units
-     * @return A list of all possible actions
+     * Generates the children of this state, see getChildren.
+     * @return All possible actions and their associated resulting game state
      */
-    private List<Action> findAllActionsForUnit(SimpleUnit unit, List<SimpleUnit> enemyUnits) {
-        List<Action> allPossibleActions = new ArrayList<>();
-
-        // Find all move actions
-        for (Direction direction : Direction.values()) {
-            // Only move up, down, left, or right
-            if (direction.equals(Direction.NORTHEAST) ||
-                    direction.equals(Direction.NORTHWEST) ||
-                    direction.equals(Direction.SOUTHEAST) ||
-                    direction.equals(Direction.SOUTHWEST)) {
-                continue;
-            }
-
-            int newX = unit.getX() + direction.xComponent();
-            int newY = unit.getY() + direction.yComponent();
-
-            if (!(newX >= xExtent ||
-                    newY >= yExtent ||
-                    newX < 0 ||
-                    newY < 0 ||
-                    resources.contains(new MapLocation(newX, newY)) ||
-                    unitIsLocated(new Pair<>(newX, newY)))) {
-                allPossibleActions.add(Action.createPrimitiveMove(unit.getId(), direction));
-            }
-        }
+    private List<GameStateChild> generateChildren() {
+        List<GameStateChild> children = new ArrayList<>();
 
-        // Find all attack actions
-        List<Integer> possibleTargets = findAllPossibleTargets(unit.getLocation(), unit.getRange(), enemyUnits);
+        SearchState searchState = new SearchState(this);
+        MoveGenerator generator = new MoveGenerator();
+        generator.reset(searchState);
 
-        for (int target : possibleTargets) {
-            allPossibleActions.add(Action.createPrimitiveAttack(unit.getId(), target));
+        while (generator.hasNext()) {
+            int move = generator.next();
+            Map<Integer, Action> actionMap = searchState.toActions(move);
+            searchState.apply(move);
+            children.add(new GameStateChild(actionMap, searchState.toGameState()));
+            searchState.undo(move);
         }
 
-        return allPossibleActions;
+        return children;
     }
 
     /**
-     * Finds the cartesian product of each units's actions
-     * @param actionsList A list of each unit's actions
-     * @return The cartesian product of actions
+     * Checks if every unit in a range of slots is dead
+     * @param firstUnit The first slot
+     * @param endUnit   One past the last slot
+     * @return true if none of the units has health left
      */
-    private List<List<Action>> cartesianProduct(List<List<Action>> actionsList) {
-        List<List<Action>> combinations = new ArrayList<>();
-        for (List<Action> actions : actionsList) {
-            List<List<Action>> extraColumnCombinations = new ArrayList<>();
-            for (Action action : actions) {
-                if (combinations.isEmpty()) {
-                    extraColumnCombinations.add(Collections.singletonList(action));
-                } else {
-                    for (List<Action> productList : combinations) {
-                        List<Action> newProductList = new ArrayList<>(productList);
-                        newProductList.add(action);
-                        extraColumnCombinations.add(newProductList);
-                    }
-                }
+    private boolean allDead(int firstUnit, int endUnit) {
+        for (int slot = firstUnit; slot < endUnit; slot++) {
+            if (getHealth(slot) > 0) {
+                return false;
             }
-            combinations = extraColumnCombinations;
         }
-        return combinations;
+        return true;
     }
 
     /**
-     * Creates new units from a given action.
-     * @param unit The unit performing the action
-     * @param action The action being performed
-     * @return A pair of units, the first being the unit after performing the action,
-     *         and the second being the unit that was targeted, null if no unit was targeted
+     * Creates the child produced by one joint move.
+     * @param move A joint move legal in this state, see SearchState
+     * @return The actions of the move and the resulting state
      */
-    public Pair<SimpleUnit, SimpleUnit> createNewUnitFromAction(SimpleUnit unit, Action action) {
-        if (action instanceof DirectedAction) {
-            DirectedAction directedAction = (DirectedAction) action;
-            int newX = unit.getX() + directedAction.getDirection().xComponent();
-            int newY = unit.getY() + directedAction.getDirection().yComponent();
-
-            SimpleUnit newUnit = new SimpleUnit(unit.getId(),
-                    newX,
-                    newY,
-                    unit.getBaseHealth(),
-                    unit.getCurrentHealth(),
-                    unit.getBasicAttack(),
-                    unit.getRange());
-
-            return new Pair<>(newUnit, null);
-
-        } else if (action instanceof TargetedAction) {
-            TargetedAction targetedAction = (TargetedAction) action;
-
-            // Find enemy unit
-            SimpleUnit targetedUnit = null;
-            for (SimpleUnit footman : this.footmen) {
-                if (footman.getId() == targetedAction.getTargetId()) {
-                    targetedUnit = footman;
-                }
-            }
-
-            for (SimpleUnit archer : this.archers) {
-                if (archer.getId() == targetedAction.getTargetId()) {
-                    targetedUnit = archer;
-                }
-            }
-
-            SimpleUnit newTargetedUnit = new SimpleUnit(targetedUnit.getId(),
-                    targetedUnit.getX(),
-                    targetedUnit.getY(),
-                    targetedUnit.getBaseHealth(),
-                    targetedUnit.getCurrentHealth() - unit.getBasicAttack(),
-                    targetedUnit.getBasicAttack(),
-                    targetedUnit.getRange());
-
-            return new Pair<>(unit, newTargetedUnit);
-        }
-
-        // TODO: Throw exception?
-        return null;
+    public GameStateChild createChild(int move) {
+        SearchState searchState = new SearchState(this);
+        Map<Integer, Action> actionMap = searchState.toActions(move);
+        searchState.apply(move);
+        return new GameStateChild(actionMap, searchState.toGameState());
     }
 
     /**
-     * Creates a new enemy list, updating the old one.
-     * @param unit      The unit, may be null
-     * @param enemyList The list of enemy units that are to be updated
-     * @return A updated enemy list
+     * Creates the state where the side to move does nothing, for when it has no legal moves.
+     * @return This state with the other side to move
      */
-    private List<SimpleUnit> createNewEnemyList(SimpleUnit unit, List<SimpleUnit> enemyList) {
-        List<SimpleUnit> newEnemyList = new ArrayList<>(enemyList);
-
-        if (unit != null) {
-            int index = findIndexOfUnit(unit, enemyList);
-            newEnemyList.remove(index);
-            newEnemyList.add(unit);
-        }
-        return newEnemyList;
+    public GameState pass() {
+        return new GameState(this, units, !maxNode, zobristKey ^ ZobristKeys.MAX_NODE);
     }
 
     /**
-     * Finds all possible targets for a given unit based on their location.
-     * @param location The location of the attacking unit
-     * @param range    The range of the attacking unit
-     * @param enemies  The list of enemies who could possibly be attacked
-     * @return List of tuples (targetID, range)
+     * Takes the killed units off the map, the way SEPIA does between turns.
+     * @return This state without its dead units, or this state itself if none have died
      */
-    private List<Integer> findAllPossibleTargets(Pair<Integer, Integer> location, int range, List<SimpleUnit> enemies) {
-        List<Integer> possibleTargets = new ArrayList<>();
-        for (SimpleUnit enemy : enemies) {
-            Pair<Integer, Integer> enemyLocation = enemy.getLocation();
-            if (range >= Math.abs(location.a - enemyLocation.a) &&
-                    range >= Math.abs(location.b - enemyLocation.b)) {
-                possibleTargets.add(enemy.getId());
+    public GameState withoutDeadUnits() {
+        int living = 0;
+        int livingFootmen = 0;
+        for (int slot = 0; slot < getUnitCount(); slot++) {
+            if (getHealth(slot) > 0) {
+                living++;
+                livingFootmen += slot < footmanCount ? 1 : 0;
             }
         }
-        return possibleTargets;
-    }
-
-    /**
-     * Checks if a unit is located at the specified location
-     * @param location the location being checked
-     * @return true if there is a unit located at location
-     */
-    private boolean unitIsLocated(Pair<Integer, Integer> location) {
-        for (SimpleUnit footman : footmen) {
-            if (footman.getLocation().equals(location)) {
-                return true;
-            }
+        if (living == getUnitCount()) {
+            return this;
         }
 
-        for (SimpleUnit archer : archers) {
-            if (archer.getLocation().equals(location)) {
-                return true;
+        int[] livingUnits = new int[living * UNIT_FIELDS];
+        int[] livingStats = new int[living * STAT_FIELDS];
+        int newSlot = 0;
+        for (int slot = 0; slot < getUnitCount(); slot++) {
+            if (getHealth(slot) > 0) {
+                System.arraycopy(units, slot * UNIT_FIELDS, livingUnits, newSlot * UNIT_FIELDS, UNIT_FIELDS);
+                System.arraycopy(unitStats, slot * STAT_FIELDS, livingStats, newSlot * STAT_FIELDS, STAT_FIELDS);
+                newSlot++;
             }
         }
 
-        return false;
+        GameState state = new GameState(xExtent, yExtent, livingFootmen, livingUnits, livingStats, resources,
+                distanceFields);
+        state.weights = weights;
+        return maxNode ? state : state.pass();
     }
 
     /**
-     * Finds a unit from the footmen and archers list and returns it.
-     * @param id the id of the unit
-     * @return the SimpleUnit
+     * Checks if there is an obstacle at a location
+     * @param x the x coordinate being checked
+     * @param y the y coordinate being checked
+     * @return true if one of the resources is at the location
      */
-    private SimpleUnit findUnitById(int id) {
-        for (SimpleUnit unit : footmen) {
-            if (unit.getId() == id) {
-                return unit;
-            }
-        }
-
-        for (SimpleUnit unit : archers) {
-            if (unit.getId() == id) {
-                return unit;
-            }
-        }
-
-        return null;
+    boolean isObstacle(int x, int y) {
+        return obstacles.get(x, y);
     }
 
     /**
-     * Finds the index of the unit by id.
-     * @param unit the unit being searched for
-     * @param unitList the list the unit is contained in
-     * @return the index of the unit in the unitList
+     * @return A copy of the packed units array
      */
-    private int findIndexOfUnit(SimpleUnit unit, List<SimpleUnit> unitList) {
-        int index = 0;
-        for (SimpleUnit newUnit : unitList) {
-            if (unit.getId() == newUnit.getId()) {
-                return index;
-            }
-            index += 1;
-        }
-        return -1;
+    int[] copyUnits() {
+        return units.clone();
     }
 
+    // PRIVATE FUNCTIONS
+
     /**
      * This calculates the distance of a path between two locations
+     * <p>
+     * The evaluation reads distances from the distance fields instead. This is for one off queries where building
+     * a whole field isn't worth it.
+     *
      * @param start The beginning location
      * @param goal  The goal location
      * @return      The distance bewteen the two locations
      */
-    private int aStarDistance(MapLocation start, MapLocation goal) {
+    int aStarDistance(MapLocation start, MapLocation goal) {
 
         // search Lists
         Comparator comparator = pathComparator(start, goal);
@@ -553,9 +530,7 @@ public class GameState {
                     // System.out.println(successor + " : " + enemyFootmanLoc);
 
                     if (successor != null && !closedList.contains(successor) &&
-                            !resources.contains(successor) &&
-                            !alreadyPath(openList, successor) &&
-                            !resources.contains(successor)) {
+                            !alreadyPath(openList, successor)) {
 
                         Stack<MapLocation> newPath =
                                 (Stack<MapLocation>) currentPath.clone();
@@ -567,8 +542,8 @@ public class GameState {
             }
         }
 
+        // no path between the two squares
         if (finalPath.isEmpty()) {
-            System.out.println("No Avaliable path");
             return 0;
         }
 
@@ -592,9 +567,8 @@ public class GameState {
         MapLocation[] successors = {north, south, east, west};
 
         for (int i = 0; i < successors.length; i++) {
-            if ( successors[i].x < 0 || successors[i].x > xExtent ||
-                    successors[i].y < 0 || successors[i].y > yExtent ||
-                    resources.contains(successors[i])) {
+            if (!obstacles.inBounds(successors[i].x, successors[i].y) ||
+                    obstacles.get(successors[i].x, successors[i].y)) {
 
                 successors[i] = null;
             }
@@ -642,8 +616,8 @@ public class GameState {
 
                 int dist1 = o1.size();
                 int dist2 = o2.size();
-                int taxicab1 = taxicab(o1.peek().getLocation(), goal.getLocation());
-                int taxicab2 = taxicab(o2.peek().getLocation(), goal.getLocation());
+                int taxicab1 = taxicab(o1.peek().x, o1.peek().y, goal.x, goal.y);
+                int taxicab2 = taxicab(o2.peek().x, o2.peek().y, goal.x, goal.y);
 
                 if (taxicab1 + dist1 == taxicab2 + dist2) {
                     return 0;
@@ -667,6 +641,10 @@ public class GameState {
         return this.maxNode;
     }
 
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
     public int getXExtent() {
         return xExtent;
     }
@@ -675,11 +653,69 @@ public class GameState {
         return yExtent;
     }
 
+    public int getUnitCount() {
+        return units.length / UNIT_FIELDS;
+    }
+
+    public int getFootmanCount() {
+        return footmanCount;
+    }
+
+    public int getArcherCount() {
+        return getUnitCount() - footmanCount;
+    }
+
+    public int getId(int slot) {
+        return units[slot * UNIT_FIELDS + ID];
+    }
+
+    public int getX(int slot) {
+        return units[slot * UNIT_FIELDS + X];
+    }
+
+    public int getY(int slot) {
+        return units[slot * UNIT_FIELDS + Y];
+    }
+
+    public int getHealth(int slot) {
+        return units[slot * UNIT_FIELDS + HEALTH];
+    }
+
+    public int getBaseHealth(int slot) {
+        return unitStats[slot * STAT_FIELDS + BASE_HEALTH];
+    }
+
+    public int getBasicAttack(int slot) {
+        return unitStats[slot * STAT_FIELDS + BASIC_ATTACK];
+    }
+
+    public int getRange(int slot) {
+        return unitStats[slot * STAT_FIELDS + RANGE];
+    }
+
+    /**
+     * Returns views of the footmen. The search itself reads the slots directly, this is for callers
+     * that want unit objects.
+     * @return The footmen
+     */
     public List<SimpleUnit> getFootmen() {
+        List<SimpleUnit> footmen = new ArrayList<>(footmanCount);
+        for (int slot = 0; slot < footmanCount; slot++) {
+            footmen.add(new SimpleUnit(slot));
+        }
         return footmen;
     }
 
+    /**
+     * Returns views of the archers. The search itself reads the slots directly, this is for callers
+     * that want unit objects.
+     * @return The archers
+     */
     public List<SimpleUnit> getArchers() {
+        List<SimpleUnit> archers = new ArrayList<>(getArcherCount());
+        for (int slot = footmanCount; slot < getUnitCount(); slot++) {
+            archers.add(new SimpleUnit(slot));
+        }
         return archers;
     }
 
@@ -687,17 +723,42 @@ public class GameState {
         return resources;
     }
 
+    public BitGrid getObstacles() {
+        return obstacles;
+    }
+
+    public DistanceFields getDistanceFields() {
+        return distanceFields;
+    }
+
+    public EvaluationWeights getWeights() {
+        return weights;
+    }
+
+    /**
+     * @param weights The weights getUtility should use
+     * @return This state with the given weights, passed on to every state that follows from it
+     */
+    public GameState withWeights(EvaluationWeights weights) {
+        if (weights == this.weights) {
+            return this;
+        }
+        GameState state = new GameState(this, units, maxNode, zobristKey);
+        state.weights = weights;
+        return state;
+    }
+
     public String toString() {
 
         StringBuilder builder = new StringBuilder();
 
         builder.append("FOOTMEN:\n");
-        for (SimpleUnit footman : footmen) {
+        for (SimpleUnit footman : getFootmen()) {
             builder.append(footman.toString());
         }
 
         builder.append("\nARCHERS:\n");
-        for (SimpleUnit archer : archers) {
+        for (SimpleUnit archer : getArchers()) {
             builder.append(archer.toString());
         }
 
@@ -705,30 +766,28 @@ public class GameState {
     }
 
     /**
-     * Computes the taxicab distance between two units
+     * Computes the taxicab distance between two locations
      *
-     * @param first  The first unit
-     * @param second The second unit
-     * @return       The taxicab distance between the two units.
+     * @param x1 The x coordinate of the first location
+     * @param y1 The y coordinate of the first location
+     * @param x2 The x coordinate of the second location
+     * @param y2 The y coordinate of the second location
+     * @return   The taxicab distance between the two locations.
      */
-    private int taxicab(Pair<Integer, Integer> first, Pair<Integer, Integer> second) {
-
-        int deltaX = Math.abs(first.a - second.a);
-        int deltaY = Math.abs(first.b - second.b);
-
-        return deltaX + deltaY;
-
+    private static int taxicab(int x1, int y1, int x2, int y2) {
+        return Math.abs(x1 - x2) + Math.abs(y1 - y2);
     }
 
     /**
-     * This calculates the distance the the two closest walls for a unit
-     * @param unit the unit we want the distance from
-     * @return     the distance to the two closest walls summed
+     * This calculates the distance the the two closest walls for a location
+     * @param x the x coordinate we want the distance from
+     * @param y the y coordinate we want the distance from
+     * @return  the distance to the two closest walls summed
      */
-    private int distanceToWalls(SimpleUnit unit) {
+    int distanceToWalls(int x, int y) {
 
-        int distToYWall = Math.min(unit.x, xExtent - unit.x);
-        int distToXWall = Math.min(unit.y, yExtent - unit.y);
+        int distToYWall = Math.min(x, xExtent - x);
+        int distToXWall = Math.min(y, yExtent - y);
 
         return distToXWall + distToYWall;
 
@@ -737,27 +796,13 @@ public class GameState {
     // CLASSES
 
     /**
-     * Represents a unit, but only has the fields necessary for the Minimax algorithm.
+     * A view of one unit's slot in this state.
      */
     public class SimpleUnit {
-        private int id;
-        private int x;
-        private int y;
-
-        private int baseHealth;
-        private int currentHealth;
-
-        private int basicAttack;
-        private int range;
+        private final int slot;
 
-        public SimpleUnit(int id, int x, int y, int baseHealth, int currentHealth, int basicAttack, int range) {
-            this.id = id;
-            this.x = x;
-            this.y = y;
-            this.baseHealth = baseHealth;
-            this.currentHealth = currentHealth;
-            this.basicAttack = basicAttack;
-            this.range = range;
+        private SimpleUnit(int slot) {
+            this.slot = slot;
         }
 
         @Override
@@ -767,52 +812,57 @@ public class GameState {
 
             SimpleUnit that = (SimpleUnit) o;
 
-            if (id != that.getId()) return false;
-            if (x != that.getX()) return false;
-            if (y != that.getY()) return false;
-            if (baseHealth != that.getBaseHealth()) return false;
-            if (currentHealth != that.getCurrentHealth()) return false;
-            if (basicAttack != that.getBasicAttack()) return false;
-            return range == that.getRange();
+            if (getId() != that.getId()) return false;
+            if (getX() != that.getX()) return false;
+            if (getY() != that.getY()) return false;
+            if (getBaseHealth() != that.getBaseHealth()) return false;
+            if (getCurrentHealth() != that.getCurrentHealth()) return false;
+            if (getBasicAttack() != that.getBasicAttack()) return false;
+            return getRange() == that.getRange();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(getId(), getX(), getY(), getCurrentHealth());
         }
 
         public int getId() {
-            return id;
+            return GameState.this.getId(slot);
         }
 
         public int getX() {
-            return x;
+            return GameState.this.getX(slot);
         }
 
         public int getY() {
-            return y;
+            return GameState.this.getY(slot);
         }
 
         public Pair<Integer, Integer> getLocation() {
-            return new Pair<>(x, y);
+            return new Pair<>(getX(), getY());
         }
 
         public int getBaseHealth() {
-            return baseHealth;
+            return GameState.this.getBaseHealth(slot);
         }
 
         public int getCurrentHealth() {
-            return currentHealth;
+            return GameState.this.getHealth(slot);
         }
 
         public int getBasicAttack() {
-            return basicAttack;
+            return GameState.this.getBasicAttack(slot);
         }
 
         public int getRange() {
-            return range;
+            return GameState.this.getRange(slot);
         }
 
         @Override
         public String toString() {
             String builder = "";
-            builder += "location: (" + x + ", " + y + ")\n";
-            builder += "health: " + currentHealth + " / " + baseHealth + "\n";
+            builder += "location: (" + getX() + ", " + getY() + ")\n";
+            builder += "health: " + getCurrentHealth() + " / " + getBaseHealth() + "\n";
 
             return builder;
         }
@@ -821,7 +871,7 @@ public class GameState {
     /**
      * Simple class to hold the locations of resources.
      */
-    public class MapLocation {
+    public static class MapLocation {
         public int x;
         public int y;
 
@@ -830,11 +880,6 @@ public class GameState {
             this.y = y;
         }
 
-        public MapLocation(SimpleUnit unit) {
-            this.x = unit.x;
-            this.y = unit.y;
-        }
-
         public Pair<Integer, Integer> getLocation() {
             return new Pair<>(x, y);
         }
@@ -849,5 +894,10 @@ public class GameState {
             if (x != that.x) return false;
             return y == that.y;
         }
+
+        @Override
+        public int hashCode() {
+            return 31 * x + y;
+        }
     }
 }
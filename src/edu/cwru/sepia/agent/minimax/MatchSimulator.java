@@ -0,0 +1,174 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Plays games between a footmen agent and an {@link ArcherPolicy} without the SEPIA engine, so the search can be
+ * measured and tuned over many games quickly.
+ * <p>
+ * The game starts from a state file in data/ read by {@link ScenarioLoader}. Each turn the footmen make the move
+ * the agent chooses and then the archers make the move the policy chooses. SEPIA carries out both sides' actions at
+ * the same time, so this is the game as the search sees it rather than an exact copy of SEPIA. Killed units are
+ * taken off the map between moves, as SEPIA does.
+ * <p>
+ * Usage: java edu.cwru.sepia.agent.minimax.MatchSimulator state-file plys budget-ms [name=value ...]
+ * <p>
+ * The options are games, maxTurns, agent (minimax or mcts), archers (random or greedy) and seed. Every option is also
+ * passed on to the agent, so its search options such as threads can be given here too. For the mcts agent the plys
+ * argument is the number of iterations per turn instead, see {@link MonteCarloTreeSearch}.
+ */
+public class MatchSimulator {
+
+    public enum Winner {
+        FOOTMEN, ARCHERS, DRAW
+    }
+
+    /**
+     * The outcome of one game.
+     */
+    public static class MatchResult {
+        private final Winner winner;
+        private final int turns;
+        private final long[] moveNanos;
+
+        MatchResult(Winner winner, int turns, long[] moveNanos) {
+            this.winner = winner;
+            this.turns = turns;
+            this.moveNanos = moveNanos;
+        }
+
+        public Winner getWinner() {
+            return winner;
+        }
+
+        public int getTurns() {
+            return turns;
+        }
+
+        /**
+         * @return The total time the agent spent choosing its moves
+         */
+        public long getSearchNanos() {
+            long searchNanos = 0;
+            for (long nanos : moveNanos) {
+                searchNanos += nanos;
+            }
+            return searchNanos;
+        }
+
+        /**
+         * @return The time the agent spent choosing each of its moves, in the order they were made
+         */
+        public long[] getMoveNanos() {
+            return moveNanos.clone();
+        }
+    }
+
+    private final FootmenPolicy agent;
+    private final ArcherPolicy archers;
+    private final int maxTurns;
+
+    /**
+     * @param agent    The agent playing the footmen
+     * @param archers  The policy playing the archers
+     * @param maxTurns The number of turns after which a game is a draw
+     */
+    public MatchSimulator(FootmenPolicy agent, ArcherPolicy archers, int maxTurns) {
+        this.agent = agent;
+        this.archers = archers;
+        this.maxTurns = maxTurns;
+    }
+
+    /**
+     * Plays one game to the end
+     * @param start The starting state, with the footmen to move
+     * @return The result of the game
+     */
+    public MatchResult play(GameState start) {
+        agent.newGame();
+
+        GameState state = start;
+        long[] moveNanos = new long[16];
+        int moves = 0;
+        int turn = 0;
+        while (turn < maxTurns && !state.isTerminal()) {
+            long searchStart = System.nanoTime();
+            GameStateChild footmenMove = agent.chooseChild(state);
+            if (moves == moveNanos.length) {
+                moveNanos = Arrays.copyOf(moveNanos, moves * 2);
+            }
+            moveNanos[moves++] = System.nanoTime() - searchStart;
+            state = makeMove(state, footmenMove);
+
+            if (state.isTerminal()) {
+                break;
+            }
+
+            state = makeMove(state, archers.chooseChild(state));
+            turn++;
+        }
+
+        return new MatchResult(winner(state), turn, Arrays.copyOf(moveNanos, moves));
+    }
+
+    /**
+     * @param state The state before the move
+     * @param child The chosen child, or null if the side to move can't do anything
+     * @return The state after the move, with the killed units removed
+     */
+    private static GameState makeMove(GameState state, GameStateChild child) {
+        if (child == null || child.action == null) {
+            return state.pass();
+        }
+        return child.state.withoutDeadUnits();
+    }
+
+    private static Winner winner(GameState state) {
+        if (state.getArcherCount() == 0) {
+            return Winner.FOOTMEN;
+        }
+        if (state.getFootmanCount() == 0) {
+            return Winner.ARCHERS;
+        }
+        return Winner.DRAW;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: MatchSimulator state-file plys|iterations budget-ms [name=value ...]");
+            System.exit(1);
+        }
+
+        GameState start = ScenarioLoader.load(new File(args[0]));
+        String[] agentArgs = Arrays.copyOfRange(args, 1, args.length);
+        SearchOptions options = new SearchOptions(agentArgs, 2);
+
+        int games = options.getInt("games", 100);
+        int maxTurns = options.getInt("maxTurns", 500);
+        long seed = options.getInt("seed", 1);
+        ArcherPolicy archers = ArcherPolicy.forName(options.getString("archers", "greedy"), seed);
+
+        FootmenPolicy agent = FootmenPolicy.forName(options.getString("agent", "minimax"), agentArgs);
+        MatchSimulator simulator = new MatchSimulator(agent, archers, maxTurns);
+
+        int[] wins = new int[Winner.values().length];
+        long turns = 0;
+        long searchNanos = 0;
+        long startNanos = System.nanoTime();
+        for (int game = 0; game < games; game++) {
+            MatchResult result = simulator.play(start);
+            wins[result.getWinner().ordinal()]++;
+            turns += result.getTurns();
+            searchNanos += result.getSearchNanos();
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        System.out.printf("games: %d, footmen: %d, archers: %d, draws: %d%n", games,
+                wins[Winner.FOOTMEN.ordinal()], wins[Winner.ARCHERS.ordinal()], wins[Winner.DRAW.ordinal()]);
+        System.out.printf("average turns: %.1f, search time per turn: %.3f ms%n", (double) turns / games,
+                turns == 0 ? 0 : searchNanos / 1e6 / turns);
+        System.out.printf("games per minute: %.1f%n", games * 60 / seconds);
+    }
+}
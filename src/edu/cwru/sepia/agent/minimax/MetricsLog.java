@@ -0,0 +1,135 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends each turn's {@link SearchMetrics} to a file as a line of JSON. The writing is done on a background thread,
+ * so the agent never waits for the disk between choosing a move and returning it.
+ * <p>
+ * Agents given the same file share one log, so the games a tournament plays at once write whole lines one after
+ * another instead of into each other. The logs are closed when the JVM exits, once everything queued is written.
+ */
+class MetricsLog {
+
+    /**
+     * The open logs, by absolute path
+     */
+    private static final Map<Path, MetricsLog> OPEN_LOGS = new HashMap<>();
+
+    private static boolean shutdownHookAdded;
+
+    private final Path path;
+    private final Writer writer;
+    private final ExecutorService writerThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "minimax-metrics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Opens the log, adding to the end of it if it already exists
+     * @param path The file to write to
+     */
+    private MetricsLog(Path path) {
+        this.path = path;
+        try {
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open metrics log " + path, e);
+        }
+    }
+
+    /**
+     * @param path The file to write to
+     * @return The log already open on the file, or a new one adding to the end of it
+     */
+    static MetricsLog open(Path path) {
+        Path absolutePath = path.toAbsolutePath().normalize();
+        synchronized (OPEN_LOGS) {
+            if (!shutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(new Thread(MetricsLog::closeAll, "minimax-metrics-close"));
+                shutdownHookAdded = true;
+            }
+            return OPEN_LOGS.computeIfAbsent(absolutePath, MetricsLog::new);
+        }
+    }
+
+    /**
+     * Queues a turn's metrics to be written
+     * @param metrics The metrics
+     */
+    void write(SearchMetrics metrics) {
+        writerThread.execute(() -> {
+            try {
+                writer.write(metrics.toJson());
+                writer.write('\n');
+                writer.flush();
+            } catch (IOException e) {
+                System.err.println("Could not write to metrics log " + path + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Waits for the metrics queued so far to be written
+     */
+    void flush() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                // the writer thread runs tasks in order, so this one finishes after everything before it
+                writerThread.submit(() -> { }).get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Metrics log writer failed", e.getCause());
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes everything queued and closes the file
+     */
+    private void close() {
+        writerThread.shutdown();
+        try {
+            writerThread.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            writer.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Could not close metrics log " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static void closeAll() {
+        List<MetricsLog> logs;
+        synchronized (OPEN_LOGS) {
+            logs = new ArrayList<>(OPEN_LOGS.values());
+            OPEN_LOGS.clear();
+        }
+        for (MetricsLog log : logs) {
+            log.close();
+        }
+    }
+}
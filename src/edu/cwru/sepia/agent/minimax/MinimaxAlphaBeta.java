@@ -6,16 +6,157 @@ import edu.cwru.sepia.action.ActionType;
 import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.environment.model.history.History;
 import edu.cwru.sepia.environment.model.state.State;
-import edu.cwru.sepia.util.Pair;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class MinimaxAlphaBeta extends Agent {
+public class MinimaxAlphaBeta extends Agent implements FootmenPolicy {
+
+    /**
+     * Memory for the transposition table, in megabytes. 1 << 18 entries.
+     */
+    private static final int DEFAULT_HASH_MEGABYTES = 6;
+
+    /**
+     * Half the width of an aspiration window, in utility. A few squares of footman distance.
+     */
+    private static final int DEFAULT_ASPIRATION_WINDOW = 15;
+
+    /**
+     * A failed aspiration window that would grow past this is opened all the way instead.
+     */
+    private static final int MAX_ASPIRATION_WINDOW = 1000;
 
     private final int numPlys;
 
+    /**
+     * Wall clock time each middleStep may spend searching, in milliseconds. 0 means no limit.
+     */
+    private final long timeBudgetMillis;
+
+    private final SearchClock clock = new SearchClock();
+
+    private final TranspositionTable transpositionTable;
+
+    /**
+     * Path distances for the map, built on the first turn and kept for the rest of the game.
+     */
+    private DistanceFields distanceFields;
+
+    /**
+     * Each search thread has its own searcher, which holds that thread's move lists.
+     */
+    private final transient ThreadLocal<AlphaBetaSearcher> searchers;
+
+    /**
+     * Runs the parallel root search, or null when searching on a single thread.
+     */
+    private final transient ForkJoinPool searchPool;
+
+    /**
+     * Whether the parallel search also splits the replies to each root child.
+     */
+    private final boolean splitReplies;
+
+    /**
+     * The searchers of the Lazy SMP helper threads, or null when not searching that way. Each helper searches the
+     * same root as the main thread, and they help it only through the entries they leave in the transposition table.
+     */
+    private final AlphaBetaSearcher[] helpers;
+
+    /**
+     * Runs the Lazy SMP helpers, or null when not searching that way.
+     */
+    private final transient ExecutorService helperPool;
+
+    /**
+     * The helpers' clock, stopped as soon as the main thread finishes the root they are helping with.
+     */
+    private final SearchClock helperClock = new SearchClock();
+
+    /**
+     * Whether to use principal variation search with aspiration windows instead of plain alpha beta.
+     */
+    private final boolean principalVariation;
+
+    /**
+     * How far either side of the previous iteration's value the first window of each iteration reaches, in
+     * principal variation search mode. 0 searches every iteration with the full window.
+     */
+    private final double aspirationWindow;
+
+    /**
+     * Whether to search one unit's action per level of the tree instead of joint moves, see AlphaBetaSearcher.
+     */
+    private final boolean unitTree;
+
+    /**
+     * The value of the root found by the last call to alphaBetaSearch. A bound if it fell outside the window.
+     */
+    private double rootValue;
+
+    /**
+     * Every searcher the agent has made, for adding up their counters after each search.
+     */
+    private final List<AlphaBetaSearcher> allSearchers = new CopyOnWriteArrayList<>();
+
+    /**
+     * The depth of the deepest iteration the last search completed.
+     */
+    private int completedDepth;
+
+    /**
+     * The number of searches so far this game.
+     */
+    private long turn;
+
+    private volatile SearchMetrics lastMetrics;
+
+    /**
+     * Where each search's metrics are written, or null if they aren't.
+     */
+    private final transient MetricsLog metricsLog;
+
+    /**
+     * Runs the search between turns, or null when pondering is off.
+     */
+    private final transient ExecutorService ponderThread;
+
+    /**
+     * The search running between turns, or null if there isn't one.
+     */
+    private Future<?> ponderTask;
+
+    /**
+     * When the search between turns started, and the distance field counts then, for its metrics.
+     */
+    private long ponderStartNanos;
+    private DistanceFields ponderFields;
+    private long ponderDistanceHits;
+    private long ponderDistanceMisses;
+
+    /**
+     * The depth of the deepest iteration completed between turns on the first reply searched, which is the one the
+     * footmen's search predicted if it left one.
+     */
+    private int ponderDepth;
+
+    /**
+     * The weights of the evaluation, from the file named by the weights option
+     */
+    private EvaluationWeights weights;
+
     public MinimaxAlphaBeta(int playernum, String[] args) {
         super(playernum);
 
@@ -24,28 +165,110 @@ public class MinimaxAlphaBeta extends Agent {
             System.exit(1);
         }
 
-        numPlys = Integer.parseInt(args[0]);
+        // the searchers keep their per ply tables for MAX_PLY plys, and in the unit tree every unit's action is a ply
+        numPlys = Math.min(Integer.parseInt(args[0]), AlphaBetaSearcher.MAX_PLY - 1);
+        timeBudgetMillis = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+        SearchOptions options = new SearchOptions(args, 2);
+        int threads = options.getInt("threads", 1);
+        splitReplies = options.getBoolean("splitReplies", false);
+        transpositionTable = TranspositionTable.withMegabytes(options.getInt("hashMb", DEFAULT_HASH_MEGABYTES));
+
+        String parallel = options.getString("parallel", "split");
+        if (!parallel.equals("split") && !parallel.equals("lazy")) {
+            throw new IllegalArgumentException("parallel must be split or lazy, got " + parallel);
+        }
+
+        String search = options.getString("search", "pvs");
+        if (!search.equals("alphabeta") && !search.equals("pvs")) {
+            throw new IllegalArgumentException("search must be alphabeta or pvs, got " + search);
+        }
+        principalVariation = search.equals("pvs");
+        aspirationWindow = options.getInt("aspirationWindow", DEFAULT_ASPIRATION_WINDOW);
+
+        String tree = options.getString("tree", "joint");
+        if (!tree.equals("joint") && !tree.equals("unit")) {
+            throw new IllegalArgumentException("tree must be joint or unit, got " + tree);
+        }
+        unitTree = tree.equals("unit");
+
+        int reductionMoves = options.getInt("lateMoveReductions", 0);
+        boolean futilityPruning = options.getBoolean("futilityPruning", false);
+        int quiescencePlys = options.getInt("quiescence", 0);
+
+        // the parallel root splits joint moves, so the unit tree is only searched in parallel by Lazy SMP
+        boolean lazy = threads > 1 && parallel.equals("lazy");
+        searchPool = threads > 1 && !lazy && !unitTree ? new ForkJoinPool(threads) : null;
+
+        searchers = ThreadLocal.withInitial(() -> {
+            AlphaBetaSearcher searcher = new AlphaBetaSearcher(transpositionTable, clock, principalVariation, unitTree,
+                    reductionMoves, futilityPruning, quiescencePlys);
+            allSearchers.add(searcher);
+            return searcher;
+        });
+
+        if (lazy) {
+            helpers = new AlphaBetaSearcher[threads - 1];
+            for (int i = 0; i < helpers.length; i++) {
+                helpers[i] = new AlphaBetaSearcher(transpositionTable, helperClock, principalVariation, unitTree,
+                        reductionMoves, futilityPruning, quiescencePlys);
+                allSearchers.add(helpers[i]);
+            }
+            helperPool = Executors.newFixedThreadPool(helpers.length, daemonThreads("minimax-helper"));
+        } else {
+            helpers = null;
+            helperPool = null;
+        }
+
+        ponderThread = options.getBoolean("ponder", false)
+                ? Executors.newSingleThreadExecutor(daemonThreads("minimax-ponder")) : null;
+
+        String metricsPath = options.getString("metricsLog", null);
+        metricsLog = metricsPath != null ? MetricsLog.open(Paths.get(metricsPath)) : null;
+
+        weights = EvaluationWeights.fromOptions(options);
+    }
+
+    /**
+     * @param name The name of the threads
+     * @return A factory for threads that don't keep the JVM running
+     */
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
     @Override
     public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
+        newGame();
         return middleStep(newstate, statehistory);
     }
 
     @Override
     public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
 
-        GameStateChild bestChild = alphaBetaSearch(new GameStateChild(newstate),
-                numPlys,
-                Double.NEGATIVE_INFINITY,
-                Double.POSITIVE_INFINITY);
+        GameState state = new GameState(newstate, distanceFields);
+        distanceFields = state.getDistanceFields();
+
+        GameStateChild bestChild = chooseChild(state);
+
+        if (bestChild.action == null) {
+            // no unit can do anything
+            return new HashMap<>();
+        }
 
         return bestChild.action;
     }
 
     @Override
     public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
-
+        stopPondering();
+        if (metricsLog != null) {
+            metricsLog.flush();
+        }
     }
 
     @Override
@@ -58,6 +281,324 @@ public class MinimaxAlphaBeta extends Agent {
 
     }
 
+    /**
+     * Forgets everything learned about the previous game, since a new one may be on a different map.
+     */
+    @Override
+    public void newGame() {
+        stopPondering();
+        distanceFields = null;
+        turn = 0;
+        transpositionTable.clear();
+    }
+
+    /**
+     * Changes the weights of the evaluation. The transposition table is cleared, since its values were computed
+     * with the old weights.
+     */
+    @Override
+    public void setWeights(EvaluationWeights weights) {
+        stopPondering();
+        this.weights = weights;
+        transpositionTable.clear();
+    }
+
+    /**
+     * Searches for the footmen's move in a state, without going through SEPIA. If pondering is on, the search
+     * carries on in the background once the move is chosen, until the next call.
+     * @param state The current state, with the footmen to move
+     * @return The best child of the state, or a child with no action if the footmen can't do anything
+     */
+    @Override
+    public GameStateChild chooseChild(GameState state) {
+        // the counters were reset when the search between turns started, so they now hold only its work
+        SearchMetrics ponderMetrics = null;
+        if (ponderTask != null) {
+            stopPondering();
+            ponderMetrics = new SearchMetrics(turn, System.nanoTime() - ponderStartNanos, ponderDepth,
+                    Double.NaN, totalCounters(), ponderFields.getHits() - ponderDistanceHits,
+                    ponderFields.getMisses() - ponderDistanceMisses, null);
+        }
+        state = state.withWeights(weights);
+
+        resetCounters();
+        DistanceFields fields = state.getDistanceFields();
+        long distanceHits = fields.getHits();
+        long distanceMisses = fields.getMisses();
+        long startNanos = System.nanoTime();
+
+        clock.start(timeBudgetMillis);
+        transpositionTable.newSearch();
+        GameStateChild bestChild = iterativeDeepeningSearch(new GameStateChild(null, state));
+
+        lastMetrics = new SearchMetrics(++turn, System.nanoTime() - startNanos, completedDepth, rootValue,
+                totalCounters(), fields.getHits() - distanceHits, fields.getMisses() - distanceMisses, ponderMetrics);
+        if (metricsLog != null) {
+            metricsLog.write(lastMetrics);
+        }
+
+        if (ponderThread != null && bestChild.action != null && !bestChild.state.isTerminal()) {
+            GameState afterMove = bestChild.state;
+            // started here rather than on the ponder thread, so a stop that comes before the thread gets going
+            // isn't undone by it
+            clock.start(0);
+            clock.allowAbort();
+            transpositionTable.newSearch();
+            resetCounters();
+            ponderStartNanos = System.nanoTime();
+            ponderFields = fields;
+            ponderDistanceHits = fields.getHits();
+            ponderDistanceMisses = fields.getMisses();
+            ponderDepth = 0;
+            ponderTask = ponderThread.submit(() -> ponder(afterMove));
+        }
+        return bestChild;
+    }
+
+    private void resetCounters() {
+        for (AlphaBetaSearcher searcher : allSearchers) {
+            searcher.getCounters().reset();
+        }
+    }
+
+    /**
+     * @return Every searcher's counters added up
+     */
+    private SearchCounters totalCounters() {
+        SearchCounters total = new SearchCounters(AlphaBetaSearcher.MAX_PLY);
+        for (AlphaBetaSearcher searcher : allSearchers) {
+            total.add(searcher.getCounters());
+        }
+        return total;
+    }
+
+    /**
+     * @return What the last call to chooseChild or middleStep did, or null if there hasn't been one
+     */
+    public SearchMetrics getLastMetrics() {
+        return lastMetrics;
+    }
+
+    /**
+     * Stops the search running between turns, if there is one, and waits for it to finish so the next search has
+     * the transposition table and clock to itself.
+     */
+    public void stopPondering() {
+        if (ponderTask == null) {
+            return;
+        }
+
+        clock.stop();
+        await(ponderTask);
+        ponderTask = null;
+    }
+
+    /**
+     * Waits for a background search to finish, even if this thread is interrupted, since the caller is about to use
+     * the transposition table or clock the search was using.
+     * @param task The search
+     */
+    private static void await(Future<?> task) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                task.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Background search failed", e.getCause());
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Searches on the archers' time. Each state the archers' reply could lead to is searched as the next turn's
+     * root would be, most likely reply first: the one the footmen's search predicted, then the rest in the order
+     * they are generated. The results are left in the transposition table, so if the real state is one of them the
+     * next search finds it already searched to full depth and returns at once. Runs until every reply has been
+     * searched to numPlys or stopPondering is called.
+     * @param afterMove The state after the footmen's chosen move, with the archers to move
+     */
+    private void ponder(GameState afterMove) {
+        SearchState state = new SearchState(afterMove);
+        List<Integer> replies = new ArrayList<>();
+        int predicted = previousBestMove(state);
+        if (predicted != TranspositionTable.NO_MOVE) {
+            replies.add(predicted);
+        }
+        MoveGenerator generator = new MoveGenerator();
+        generator.reset(state);
+        while (generator.hasNext()) {
+            int reply = generator.next();
+            if (reply != predicted) {
+                replies.add(reply);
+            }
+        }
+
+        for (int reply : replies) {
+            // SEPIA takes killed units off the map between turns, so the next root will be without them as well
+            GameState nextRoot = afterMove.createChild(reply).state.withoutDeadUnits();
+            iterativeDeepeningSearch(new GameStateChild(null, nextRoot));
+            if (reply == replies.get(0)) {
+                ponderDepth = completedDepth;
+            }
+            if (clock.isExpired()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Searches to depth 1, 2, 3 and so on until either numPlys is reached or the time budget runs out.
+     * <p>
+     * Each iteration leaves the best child of every state it searched in the transposition table, so the next,
+     * deeper iteration searches the previous principal variation first. If time runs out part way through an
+     * iteration, that iteration is thrown away and the result of the deepest completed one is used.
+     * <p>
+     * In principal variation search mode each iteration after the first starts with an aspiration window around
+     * the previous iteration's value, since the value rarely moves far from one depth to the next. If the value
+     * falls outside the window the iteration is searched again with that side of the window opened wider.
+     * <p>
+     * The table is kept from one turn to the next, so when the footmen's move and the archers' reply are ones the
+     * previous turn's search looked at, the new state is already in it with a best move, a value and the depth they
+     * were searched to. The search then starts warm: that move is the answer if even the first iteration runs out of
+     * time, its value centres the first aspiration window, and the iterations the entry already covers are skipped.
+     * If the entry's value is only a bound, its own depth is searched again first to get an exact value for the root.
+     * The clock must be started by the caller.
+     *
+     * @param root The current state
+     * @return The best child found by the deepest completed iteration
+     */
+    private GameStateChild iterativeDeepeningSearch(GameStateChild root) {
+        GameStateChild bestChild = null;
+        int firstDepth = 1;
+        completedDepth = 0;
+
+        SearchState state = new SearchState(root.state);
+        TranspositionTable.Entry previous = new TranspositionTable.Entry();
+        if (transpositionTable.probe(state.getZobristKey(), previous) && previous.getDepth() > 0) {
+            int previousMove = previousBestMove(state);
+            if (previousMove != TranspositionTable.NO_MOVE) {
+                bestChild = root.state.createChild(previousMove);
+                rootValue = previous.getValue();
+                completedDepth = Math.min(previous.getDepth(), numPlys);
+                firstDepth = previous.getBound() == TranspositionTable.EXACT ? completedDepth + 1 : completedDepth;
+                clock.allowAbort();
+
+                // already searched to full depth, usually by pondering, or to the end of the game
+                if ((previous.getDepth() >= numPlys || AlphaBetaSearcher.isDecided(previous.getValue()))
+                        && previous.getBound() == TranspositionTable.EXACT) {
+                    return bestChild;
+                }
+            }
+        }
+
+        for (int depth = firstDepth; depth <= numPlys; depth++) {
+            try {
+                bestChild = aspirationSearch(root, depth, bestChild == null ? Double.NaN : rootValue);
+                completedDepth = depth;
+            } catch (SearchTimeoutException e) {
+                break;
+            }
+
+            // one side can force the end of the game within this depth, so searching deeper won't change the move
+            if (AlphaBetaSearcher.isDecided(rootValue)) {
+                break;
+            }
+
+            clock.allowAbort();
+            if (clock.isExpired()) {
+                break;
+            }
+        }
+
+        return bestChild;
+    }
+
+    /**
+     * Looks up the footmen's move an earlier search left in the transposition table for a state, checking that it is
+     * legal in case the entry belongs to a different state with a colliding slot. In unit tree mode the table holds
+     * one footman's action per sub-root, so the joint move is followed down through them.
+     * @param state The state, left unchanged on return
+     * @return The joint move, or NO_MOVE if the table doesn't hold a whole legal one
+     */
+    private int previousBestMove(SearchState state) {
+        MoveGenerator generator = new MoveGenerator();
+        if (!unitTree) {
+            int move = transpositionTable.getBestMove(state.getZobristKey());
+            generator.reset(state);
+            while (generator.hasNext()) {
+                if (generator.next() == move) {
+                    return move;
+                }
+            }
+            return TranspositionTable.NO_MOVE;
+        }
+
+        int moverCount = state.endMover() - state.firstMover();
+        int[] codes = new int[MoveGenerator.MAX_CODES];
+        int move = 0;
+        int unit = 0;
+        while (unit < moverCount) {
+            int code = transpositionTable.getBestMove(state.getZobristKey());
+            int codeCount = generator.unitCodes(state, codes);
+            int i = 0;
+            while (i < codeCount && codes[i] != code) {
+                i++;
+            }
+            if (i == codeCount) {
+                break;
+            }
+            move |= code << (unit * SearchState.BITS_PER_UNIT);
+            state.applyUnit(code);
+            unit++;
+        }
+
+        boolean complete = unit == moverCount && moverCount > 0;
+        while (unit > 0) {
+            unit--;
+            state.undoUnit((move >>> (unit * SearchState.BITS_PER_UNIT)) & SearchState.ACTION_MASK);
+        }
+        return complete ? move : TranspositionTable.NO_MOVE;
+    }
+
+    /**
+     * Searches one iteration, starting with a window around the previous iteration's value in principal variation
+     * search mode.
+     * @param root          The current state
+     * @param depth         The depth of the iteration
+     * @param previousValue The value found by the previous iteration, or NaN if there isn't one
+     * @return The best child of the root
+     */
+    private GameStateChild aspirationSearch(GameStateChild root, int depth, double previousValue) {
+        if (!principalVariation || aspirationWindow <= 0 || Double.isNaN(previousValue)) {
+            return alphaBetaSearch(root, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        }
+
+        double lowWindow = aspirationWindow;
+        double highWindow = aspirationWindow;
+        while (true) {
+            double alpha = previousValue - lowWindow;
+            double beta = previousValue + highWindow;
+            GameStateChild bestChild = alphaBetaSearch(root, depth, alpha, beta);
+
+            if (bestChild.action == null) {
+                return bestChild;
+            } else if (rootValue <= alpha) {
+                lowWindow = lowWindow * 4 > MAX_ASPIRATION_WINDOW ? Double.POSITIVE_INFINITY : lowWindow * 4;
+            } else if (rootValue >= beta) {
+                highWindow = highWindow * 4 > MAX_ASPIRATION_WINDOW ? Double.POSITIVE_INFINITY : highWindow * 4;
+            } else {
+                return bestChild;
+            }
+        }
+    }
+
     /**
      * You will implement this.
      * <p>
@@ -71,127 +612,271 @@ public class MinimaxAlphaBeta extends Agent {
      * @param depth The remaining number of plys under this node
      * @param alpha The current best value for the maximizing node from this node to the root
      * @param beta  The current best value for the minimizing node from this node to the root
-     * @return The best child of this node with updated values
+     * @return The best child of this node with updated values, or node itself if it has no children
      */
     public GameStateChild alphaBetaSearch(GameStateChild node, int depth, double alpha, double beta) {
-        double value;
-        GameStateChild bestChild = node;
-        value = -70000;
+        if (searchPool != null) {
+            return parallelAlphaBetaSearch(node, depth, alpha, beta);
+        }
 
-        for (GameStateChild child : orderChildrenWithHeuristics(node.state.getChildren())) {
-            double childValue = alphaBetaValue(child, depth - 1, alpha, beta);
-            if (childValue == value) {
-                bestChild = Math.random() * 100 > 50 ? child : bestChild;
-            }
-            bestChild = childValue > value ? child : bestChild;
-            value = childValue > value ? childValue : value;
+        AlphaBetaSearcher searcher = searchers.get();
+        SearchState state = new SearchState(node.state);
+        List<Future<?>> helping = startHelpers(node.state, depth, alpha, beta);
+        int bestMove;
+        try {
+            bestMove = searchRoot(searcher, state, depth, alpha, beta);
+        } finally {
+            stopHelpers(helping);
+        }
+        if (bestMove == TranspositionTable.NO_MOVE) {
+            rootValue = node.state.getUtility();
+            return node;
         }
 
-        System.out.printf("utility: %f\n", bestChild.state.getUtility());
-        System.out.printf("%s\n\n", bestChild.action.toString());
-        return bestChild;
+        return node.state.createChild(unitTree ? completeUnitMove(searcher, state, depth, alpha, beta, bestMove)
+                : bestMove);
     }
 
     /**
-     * Returns the value of a node by applying the alphabeta search algorithm
-     * @param node  The action and state to search from
-     * @param depth The remaining number of plys under this node
-     * @param alpha The current best value for the maximizing node from this node to the root
-     * @param beta  The current best value for the minimizing node from this node to the root
-     * @return The value of this node
+     * Starts the Lazy SMP helpers searching the root, every other one a ply deeper than the main thread so they
+     * don't all follow the same path through the tree.
+     * @param root  The root state
+     * @param depth The depth the main thread is searching it to
+     * @param alpha The alpha of the root
+     * @param beta  The beta of the root
+     * @return The running helpers, empty if there are none
      */
-    public double alphaBetaValue(GameStateChild node, int depth, double alpha, double beta) {
-        if (depth == 0 || isLeafNode(node)) {
-            return node.state.getUtility();
+    private List<Future<?>> startHelpers(GameState root, int depth, double alpha, double beta) {
+        if (helpers == null) {
+            return Collections.emptyList();
         }
 
-        if (isMaxNode(node)) {
-            double value = Double.NEGATIVE_INFINITY;
+        helperClock.start(0);
+        helperClock.allowAbort();
+        List<Future<?>> helping = new ArrayList<>(helpers.length);
+        for (int i = 0; i < helpers.length; i++) {
+            AlphaBetaSearcher helper = helpers[i];
+            SearchState state = new SearchState(root);
+            int helperDepth = i % 2 == 0 ? depth + 1 : depth;
+            helping.add(helperPool.submit(() -> {
+                try {
+                    helper.alphaBetaValue(state, helperDepth, 0, alpha, beta);
+                } catch (SearchTimeoutException e) {
+                    // stopped once the main thread was done
+                }
+            }));
+        }
+        return helping;
+    }
 
-            for (GameStateChild child : orderChildrenWithHeuristics(node.state.getChildren())) {
-                value = Math.max(value, alphaBetaValue(child, depth - 1, alpha, beta));
-                alpha = Math.max(alpha, value);
+    /**
+     * Stops the Lazy SMP helpers and waits for them, so none is still searching when the next iteration starts.
+     * @param helping The running helpers
+     */
+    private void stopHelpers(List<Future<?>> helping) {
+        if (helping.isEmpty()) {
+            return;
+        }
+        helperClock.stop();
+        for (Future<?> helper : helping) {
+            await(helper);
+        }
+    }
 
-                if (beta <= alpha) {
-                    break;
-                }
+    /**
+     * Searches the children of a max node at the top of the tree for the best one, storing the result in the
+     * transposition table and its value in rootValue.
+     * @param searcher The calling thread's searcher
+     * @param state    The state to search, left unchanged on return
+     * @param depth    The remaining number of plys under the state
+     * @param alpha    The current best value for the maximizing node
+     * @param beta     The current best value for the minimizing node
+     * @return The best move, or NO_MOVE if there are none
+     */
+    private int searchRoot(AlphaBetaSearcher searcher, SearchState state, int depth, double alpha, double beta) {
+        searcher.countRoot();
+        int moveCount = searcher.generateMoves(state, 0, transpositionTable.getBestMove(state.getZobristKey()));
+
+        double originalAlpha = alpha;
+        double value = Double.NEGATIVE_INFINITY;
+        int bestMove = TranspositionTable.NO_MOVE;
+
+        // each child's value raises alpha for the children after it, so a child that can't beat the best so far is
+        // cut off as soon as that is known. Ties keep the earlier child, since a later child that fails low against
+        // the raised alpha returns a bound that may equal the best value without being as good.
+        for (int i = 0; i < moveCount; i++) {
+            int move = searcher.nextMove(0, i, moveCount);
+
+            searcher.apply(state, move);
+            int childDepth = searcher.childDepth(state, depth);
+            double childValue = principalVariation && i > 0
+                    ? searcher.scoutValue(state, childDepth, 1, alpha, beta, true)
+                    : searcher.alphaBetaValue(state, childDepth, 1, alpha, beta);
+            searcher.undo(state, move);
+
+            if (childValue > value) {
+                value = childValue;
+                bestMove = move;
             }
-            return value;
+            alpha = Math.max(alpha, value);
+            if (value >= beta) {
+                break;
+            }
+        }
 
-        } else {
-            double value = Double.POSITIVE_INFINITY;
+        if (bestMove != TranspositionTable.NO_MOVE) {
+            rootValue = value;
+            transpositionTable.store(state.getZobristKey(), depth, value, rootBound(value, originalAlpha, beta),
+                    bestMove);
+        }
+        return bestMove;
+    }
 
-            for (GameStateChild child : orderChildrenWithHeuristics(node.state.getChildren())) {
-                value = Math.min(value, alphaBetaValue(child, depth - 1, alpha, beta));
-                beta = Math.min(beta, value);
+    /**
+     * Builds the footmen's joint move in unit tree mode, where the root search only chose the first footman's action.
+     * That action is played and the state after it searched for the second footman's action, and so on. These later
+     * searches are mostly answered by the transposition table entries the first one left.
+     * <p>
+     * If the first footman's value fell outside the window the iteration is searched again anyway, so the rest of the
+     * footmen are left idle rather than searched.
+     *
+     * @param searcher  The calling thread's searcher
+     * @param state     The root state, which is played forward
+     * @param depth     The depth of the root
+     * @param alpha     The alpha of the root
+     * @param beta      The beta of the root
+     * @param firstCode The action chosen for the first footman
+     * @return The joint move of all of the footmen
+     */
+    private int completeUnitMove(AlphaBetaSearcher searcher, SearchState state, int depth, double alpha, double beta,
+                                 int firstCode) {
+        double value = rootValue;
+        boolean inWindow = value > alpha && value < beta;
+        int moverCount = state.endMover() - state.firstMover();
 
-                if (beta <= alpha) {
-                    break;
-                } 
+        int move = firstCode;
+        state.applyUnit(firstCode);
+        for (int unit = 1; unit < moverCount; unit++) {
+            int code = inWindow ? searchRoot(searcher, state, depth, alpha, beta) : TranspositionTable.NO_MOVE;
+            if (code == TranspositionTable.NO_MOVE) {
+                code = SearchState.IDLE;
             }
-            return value;
+            move |= code << (unit * SearchState.BITS_PER_UNIT);
+            state.applyUnit(code);
+        }
+
+        rootValue = value;
+        return move;
+    }
+
+    /**
+     * @param value The value of the root
+     * @param alpha The alpha the root was searched with
+     * @param beta  The beta the root was searched with
+     * @return Whether the value is exact or only a bound, for storing in the transposition table
+     */
+    private static byte rootBound(double value, double alpha, double beta) {
+        if (value <= alpha) {
+            return TranspositionTable.UPPER_BOUND;
+        } else if (value >= beta) {
+            return TranspositionTable.LOWER_BOUND;
         }
+        return TranspositionTable.EXACT;
+    }
+
+    /**
+     * Returns the value of a node by applying the alphabeta search algorithm
+     * @param node  The action and state to search from
+     * @param depth The remaining number of plys under this node
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta  The current best value for the minimizing node from this node to the root
+     * @return The value of this node
+     */
+    public double alphaBetaValue(GameStateChild node, int depth, double alpha, double beta) {
+        if (depth == 0 && !isLeafNode(node)) {
+            return node.state.getUtility();
+        }
+        return searchers.get().alphaBetaValue(new SearchState(node.state), depth, 0, alpha, beta);
     }
 
     /**
      * Orders a list of children by a heuristic
      *
-     * The heuristic takes into account distance and unit health. In order to minimize the time spent calculating
-     * The distance is the taxicab distance between each footman and each archer and not the actual path. Unit health
-     * is important to value attacking states.
+     * Children with more units attacking come first. After that the heuristic takes into account distance and unit
+     * health. In order to minimize the time spent calculating the distance is the taxicab distance between each
+     * footman and each archer and not the actual path.
+     * <p>
+     * The search itself orders joint moves in AlphaBetaSearcher, using the hash move, killer moves and history, see
+     * MoveOrdering. This is kept for callers working with lists of GameStateChild.
      *
      * @param children The list of children of the current state
      * @return The list of children sorted by your heuristic.
      */
     public List<GameStateChild> orderChildrenWithHeuristics(List<GameStateChild> children) {
+        if (children.isEmpty()) {
+            return new ArrayList<>(children);
+        }
+
         // multiplier that is positive for max nodes, negative for min nodes
         // used for when footmen/archers want opposite things (e.g., archers want more distance)
         int multiplier = children.get(0).state.getMaxNode() ? 1 : -1;
 
-        ArrayList<Pair<Integer, GameStateChild>> heuristicValues = new ArrayList<>();
-        for (GameStateChild child : children) {
+        GameStateChild[] ordered = children.toArray(new GameStateChild[0]);
+        int[] attacks = new int[ordered.length];
+        int[] values = new int[ordered.length];
+        for (int i = 0; i < ordered.length; i++) {
+            GameState state = ordered[i].state;
             int value = 0;
 
             // Heuristics based upon units
-            for (GameState.SimpleUnit footman : child.state.getFootmen()) {
-                value += footman.getCurrentHealth();
+            for (int footman = 0; footman < state.getFootmanCount(); footman++) {
+                value += state.getHealth(footman);
                 // give each state a value based upon distance the footman are from the archers
-                for (GameState.SimpleUnit archer : child.state.getArchers()) {
-                    value -= (taxicab(footman, archer) * multiplier);
-                    value -= archer.getCurrentHealth();
+                for (int archer = state.getFootmanCount(); archer < state.getUnitCount(); archer++) {
+                    value -= (taxicab(state, footman, archer) * multiplier);
+                    value -= state.getHealth(archer);
                 }
             }
 
-            heuristicValues.add(new Pair<>(value, child));
+            for (Action action : ordered[i].action.values()) {
+                attacks[i] += action.getType() == ActionType.PRIMITIVEATTACK ? 1 : 0;
+            }
+            values[i] = value;
         }
 
-        Comparator<Pair<Integer, GameStateChild>> c = new Comparator<Pair<Integer, GameStateChild>>() {
-            @Override
-            public int compare(Pair<Integer, GameStateChild> o1, Pair<Integer, GameStateChild> o2) {
-                return o2.a - o1.a;
-            }
-        };
+        // insertion sort, there are only a few dozen children
+        for (int i = 1; i < ordered.length; i++) {
+            GameStateChild child = ordered[i];
+            int childAttacks = attacks[i];
+            int childValue = values[i];
 
-        Collections.sort(heuristicValues, c);
-        ArrayList<GameStateChild> orderedChildren = new ArrayList<>();
-        for (Pair<Integer, GameStateChild> heuristic : heuristicValues) {
-            orderedChildren.add(heuristic.b);
+            int j = i - 1;
+            while (j >= 0 && (attacks[j] < childAttacks || (attacks[j] == childAttacks && values[j] < childValue))) {
+                ordered[j + 1] = ordered[j];
+                attacks[j + 1] = attacks[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            ordered[j + 1] = child;
+            attacks[j + 1] = childAttacks;
+            values[j + 1] = childValue;
         }
 
-        return orderedChildren;
+        return new ArrayList<>(Arrays.asList(ordered));
     }
 
     /**
      * Computes the taxicab distance between two units
      *
-     * @param first  The first unit
-     * @param second The second unit
+     * @param state  The state the units are in
+     * @param first  The slot of the first unit
+     * @param second The slot of the second unit
      * @return       The taxicab distance between the two units.
      */
-    private int taxicab(GameState.SimpleUnit first, GameState.SimpleUnit second) {
+    private int taxicab(GameState state, int first, int second) {
 
-        int deltaX = Math.abs(first.getX() - second.getX());
-        int deltaY = Math.abs(first.getY() - second.getY());
+        int deltaX = Math.abs(state.getX(first) - state.getX(second));
+        int deltaY = Math.abs(state.getY(first) - state.getY(second));
 
         return deltaX + deltaY;
 
@@ -203,15 +888,214 @@ public class MinimaxAlphaBeta extends Agent {
      * @return true if node is a leaf node.
      */
     private boolean isLeafNode(GameStateChild node) {
-        return node.state.getChildren() == null;
+        return node.state.isTerminal();
     }
 
     /**
-     * Returns if the given node is a max node.
-     * @param node The node being tested.
-     * @return true if the node is a max node.
+     * Parallel version of alphaBetaSearch, used when the agent is given more than one thread.
+     *
+     * @param node  The action and state to search from
+     * @param depth The remaining number of plys under this node
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta  The current best value for the minimizing node from this node to the root
+     * @return The best child of this node, or node itself if it has no children
+     */
+    private GameStateChild parallelAlphaBetaSearch(GameStateChild node, int depth, double alpha, double beta) {
+        Integer bestMove = searchPool.invoke(new RootSearchTask(new SearchState(node.state), depth, alpha, beta));
+        if (bestMove == null) {
+            throw new SearchTimeoutException();
+        }
+        return bestMove == TranspositionTable.NO_MOVE ? node : node.state.createChild(bestMove);
+    }
+
+    /**
+     * The best value found so far at the root, shared by all of the search threads.
+     */
+    private static class SharedBound {
+        private final AtomicLong bits;
+
+        SharedBound(double value) {
+            bits = new AtomicLong(Double.doubleToRawLongBits(value));
+        }
+
+        double get() {
+            return Double.longBitsToDouble(bits.get());
+        }
+
+        /**
+         * Raises the bound to value if it is higher than the current bound.
+         * @param value The new value
+         */
+        void raise(double value) {
+            long current = bits.get();
+            while (value > Double.longBitsToDouble(current)
+                    && !bits.compareAndSet(current, Double.doubleToRawLongBits(value))) {
+                current = bits.get();
+            }
+        }
+    }
+
+    /**
+     * Searches the root on the fork join pool.
+     * <p>
+     * The first child is searched on its own to get a good alpha (young brothers wait), then the rest of the
+     * children are searched at the same time. Each child task reads the best value found so far from a shared
+     * bound, so a strong child found by one thread narrows the window of the others.
+     * <p>
+     * Returns the best move, or null if the time budget ran out.
      */
-    private boolean isMaxNode(GameStateChild node) {
-        return node.state.getMaxNode();
+    private class RootSearchTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final SearchState state;
+        private final int depth;
+        private final double alpha;
+        private final double beta;
+
+        RootSearchTask(SearchState state, int depth, double alpha, double beta) {
+            this.state = state;
+            this.depth = depth;
+            this.alpha = alpha;
+            this.beta = beta;
+        }
+
+        @Override
+        protected Integer compute() {
+            AlphaBetaSearcher searcher = searchers.get();
+            searcher.countRoot();
+            int moveCount = searcher.generateMoves(state, 0, transpositionTable.getBestMove(state.getZobristKey()));
+            if (moveCount == 0) {
+                rootValue = state.getUtility();
+                return TranspositionTable.NO_MOVE;
+            }
+
+            // copied, since this thread may run other tasks that reuse the searcher's move lists while it waits
+            int[] moves = searcher.sortedMoves(0, moveCount);
+            SharedBound bestValue = new SharedBound(alpha);
+
+            int bestMove = moves[0];
+            double value;
+            try {
+                state.apply(bestMove);
+                value = searcher.alphaBetaValue(state, depth - 1, 1, alpha, beta);
+                state.undo(bestMove);
+            } catch (SearchTimeoutException e) {
+                return null;
+            }
+            bestValue.raise(value);
+            if (value >= beta) {
+                rootValue = value;
+                transpositionTable.store(state.getZobristKey(), depth, value, TranspositionTable.LOWER_BOUND,
+                        bestMove);
+                return bestMove;
+            }
+
+            List<ChildTask> tasks = new ArrayList<>();
+            for (int i = 1; i < moves.length; i++) {
+                tasks.add(new ChildTask(state.copy(), moves[i], depth - 1, 1, beta, bestValue, splitReplies));
+            }
+            invokeAll(tasks);
+
+            // a later child only replaces an earlier one if it is strictly better, since a child that failed low
+            // against a stale bound may have returned a value equal to the best without actually being as good
+            for (ChildTask task : tasks) {
+                double childValue = task.join();
+                if (Double.isNaN(childValue)) {
+                    return null;
+                }
+                if (childValue > value) {
+                    value = childValue;
+                    bestMove = task.move;
+                }
+            }
+
+            rootValue = value;
+            transpositionTable.store(state.getZobristKey(), depth, value, rootBound(value, alpha, beta), bestMove);
+            return bestMove;
+        }
+    }
+
+    /**
+     * Finds the value of a child of a max node, with alpha taken from the shared bound.
+     * <p>
+     * If split is set, the child's first reply is searched on its own and the rest of the replies are searched at
+     * the same time, again reading alpha from the shared bound before each one.
+     * <p>
+     * Returns NaN if the time budget ran out.
+     */
+    private class ChildTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        private final SearchState state;
+        private final int move;
+        private final int depth;
+        private final int ply;
+        private final double beta;
+        private final SharedBound alpha;
+        private final boolean split;
+
+        /**
+         * @param state A copy of the parent state, owned by this task
+         * @param move  The move leading to the child
+         * @param depth The remaining number of plys under the child
+         * @param ply   The number of plys from the root to the child
+         * @param beta  The beta of the child
+         * @param alpha The shared alpha
+         * @param split Whether to split the child's replies
+         */
+        ChildTask(SearchState state, int move, int depth, int ply, double beta, SharedBound alpha, boolean split) {
+            this.state = state;
+            this.move = move;
+            this.depth = depth;
+            this.ply = ply;
+            this.beta = beta;
+            this.alpha = alpha;
+            this.split = split;
+        }
+
+        @Override
+        protected Double compute() {
+            AlphaBetaSearcher searcher = searchers.get();
+            state.apply(move);
+            try {
+                if (!split || depth == 0 || state.getMaxNode() || state.isTerminal()) {
+                    return searcher.alphaBetaValue(state, depth, ply, alpha.get(), beta);
+                }
+                return splitValue(searcher);
+            } catch (SearchTimeoutException e) {
+                return Double.NaN;
+            }
+        }
+
+        private double splitValue(AlphaBetaSearcher searcher) {
+            int replyCount = searcher.generateMoves(state, ply, transpositionTable.getBestMove(state.getZobristKey()));
+            if (replyCount == 0) {
+                return state.getUtility();
+            }
+            int[] replies = searcher.sortedMoves(ply, replyCount);
+
+            state.apply(replies[0]);
+            double value = searcher.alphaBetaValue(state, depth - 1, ply + 1, alpha.get(), beta);
+            state.undo(replies[0]);
+            if (value <= alpha.get()) {
+                return value;
+            }
+
+            List<ChildTask> tasks = new ArrayList<>();
+            for (int i = 1; i < replies.length; i++) {
+                tasks.add(new ChildTask(state.copy(), replies[i], depth - 1, ply + 1, Math.min(beta, value), alpha,
+                        false));
+            }
+            invokeAll(tasks);
+
+            for (ChildTask task : tasks) {
+                double replyValue = task.join();
+                if (Double.isNaN(replyValue)) {
+                    throw new SearchTimeoutException();
+                }
+                value = Math.min(value, replyValue);
+            }
+            return value;
+        }
     }
 }
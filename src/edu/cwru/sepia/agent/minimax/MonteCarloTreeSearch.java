@@ -0,0 +1,483 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.history.History;
+import edu.cwru.sepia.environment.model.state.State;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * An alternative to {@link MinimaxAlphaBeta} that chooses the footmen's moves by Monte Carlo tree search (UCT)
+ * instead of a fixed depth alpha beta search.
+ * <p>
+ * Each iteration walks down the tree choosing the child with the best upper confidence bound, adds one new child,
+ * plays a fast random game from it and counts the result in every node on the way back up. The playouts run on a
+ * {@link SearchState}, so a move is a few array writes, and a playout that hasn't ended the game after playoutDepth
+ * plys is scored by squashing the utility into a win probability. The root move that was visited the most is played.
+ * <p>
+ * With more than one thread each thread grows its own tree from the root, and the visit counts of the root moves are
+ * added up over the trees before choosing (root parallelisation).
+ * <p>
+ * Arguments: the number of iterations per turn (0 for no limit), then optionally the time budget per turn in
+ * milliseconds (0 for no limit), then name=value options: threads, exploration, playoutDepth and seed. At least one
+ * of the two limits must be given.
+ */
+public class MonteCarloTreeSearch extends Agent implements FootmenPolicy {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The weight of the exploration term of the upper confidence bound. Rewards are between 0 and 1.
+     */
+    private static final double DEFAULT_EXPLORATION = 0.7;
+
+    /**
+     * Long random playouts mostly measure how far random walking takes the footmen from the archers, so playouts are
+     * kept short and the utility does most of the judging.
+     */
+    private static final int DEFAULT_PLAYOUT_DEPTH = 2;
+
+    /**
+     * The utility difference from the root that counts as a 73% chance of winning a playout that didn't finish.
+     */
+    private static final double UTILITY_SCALE = 50;
+
+    private final int iterations;
+
+    /**
+     * Wall clock time each middleStep may spend searching, in milliseconds. 0 means no limit.
+     */
+    private final long timeBudgetMillis;
+
+    private final int threads;
+    private final double exploration;
+    private final int playoutDepth;
+    private final long seed;
+
+    /**
+     * The weights of the evaluation, from the file named by the weights option
+     */
+    private EvaluationWeights weights;
+
+    private final SearchClock clock = new SearchClock();
+
+    /**
+     * Runs one tree per thread, or null when searching on a single thread.
+     */
+    private final transient ForkJoinPool searchPool;
+
+    /**
+     * Path distances for the map, built on the first turn and kept for the rest of the game.
+     */
+    private DistanceFields distanceFields;
+
+    /**
+     * The number of searches so far, mixed into the seed so each turn plays different playouts.
+     */
+    private long searchCount;
+
+    public MonteCarloTreeSearch(int playernum, String[] args) {
+        super(playernum);
+
+        if (args.length < 1) {
+            System.err.println("You must specify the number of iterations");
+            System.exit(1);
+        }
+
+        iterations = Integer.parseInt(args[0]);
+        timeBudgetMillis = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        if (iterations <= 0 && timeBudgetMillis <= 0) {
+            throw new IllegalArgumentException("Either the number of iterations or the time budget must be limited");
+        }
+
+        SearchOptions options = new SearchOptions(args, 2);
+        threads = options.getInt("threads", 1);
+        exploration = options.getDouble("exploration", DEFAULT_EXPLORATION);
+        playoutDepth = options.getInt("playoutDepth", DEFAULT_PLAYOUT_DEPTH);
+        seed = options.getInt("seed", 1);
+        weights = EvaluationWeights.fromOptions(options);
+
+        searchPool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    @Override
+    public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
+        newGame();
+        return middleStep(newstate, statehistory);
+    }
+
+    @Override
+    public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+
+        GameState state = new GameState(newstate, distanceFields);
+        distanceFields = state.getDistanceFields();
+
+        GameStateChild bestChild = chooseChild(state);
+
+        if (bestChild.action == null) {
+            // no unit can do anything
+            return new HashMap<>();
+        }
+
+        return bestChild.action;
+    }
+
+    @Override
+    public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
+
+    }
+
+    @Override
+    public void savePlayerData(OutputStream os) {
+
+    }
+
+    @Override
+    public void loadPlayerData(InputStream is) {
+
+    }
+
+    @Override
+    public void newGame() {
+        distanceFields = null;
+    }
+
+    @Override
+    public void setWeights(EvaluationWeights weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * Searches for the footmen's move in a state, without going through SEPIA.
+     * @param state The current state, with the footmen to move
+     * @return The most visited child of the state, or a child with no action if the footmen can't do anything
+     */
+    @Override
+    public GameStateChild chooseChild(GameState state) {
+        clock.start(timeBudgetMillis);
+        state = state.withWeights(weights);
+        long searchSeed = seed * 0x9E3779B97F4A7C15L + searchCount++;
+
+        int[] rootMoves = legalMoves(new SearchState(state), new MoveGenerator());
+        if (rootMoves.length == 0) {
+            return new GameStateChild(null, state);
+        }
+
+        int[] visits;
+        if (searchPool == null) {
+            visits = new Tree(new SearchState(state), state.getUtility(), new Random(searchSeed))
+                    .search(iterations, rootMoves);
+        } else {
+            visits = parallelSearch(state, rootMoves, searchSeed);
+        }
+
+        int best = 0;
+        for (int i = 1; i < rootMoves.length; i++) {
+            if (visits[i] > visits[best]) {
+                best = i;
+            }
+        }
+        return state.createChild(rootMoves[best]);
+    }
+
+    /**
+     * Grows one tree per thread and adds up their root visit counts. The iterations are shared out between the trees.
+     * @param state      The root state
+     * @param rootMoves  The legal moves at the root
+     * @param searchSeed The seed for this search
+     * @return The total number of visits of each root move
+     */
+    private int[] parallelSearch(GameState state, int[] rootMoves, long searchSeed) {
+        int treeIterations = iterations <= 0 ? 0 : (iterations + threads - 1) / threads;
+        double rootUtility = state.getUtility();
+
+        List<Callable<int[]>> tasks = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            Random random = new Random(searchSeed + thread);
+            tasks.add(() -> new Tree(new SearchState(state), rootUtility, random).search(treeIterations, rootMoves));
+        }
+
+        int[] visits = new int[rootMoves.length];
+        try {
+            for (Future<int[]> result : searchPool.invokeAll(tasks)) {
+                int[] treeVisits = result.get();
+                for (int i = 0; i < visits.length; i++) {
+                    visits[i] += treeVisits[i];
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search failed", e.getCause());
+        }
+        return visits;
+    }
+
+    /**
+     * @param state     The state
+     * @param generator A generator to use
+     * @return The joint moves of the side to move, in the order the generator produces them
+     */
+    private static int[] legalMoves(SearchState state, MoveGenerator generator) {
+        generator.reset(state);
+        int[] moves = new int[generator.size()];
+        int count = 0;
+        while (generator.hasNext()) {
+            moves[count++] = generator.next();
+        }
+        return Arrays.copyOf(moves, count);
+    }
+
+    /**
+     * A node of the search tree. Rewards are from the footmen's point of view, 1 for a win.
+     */
+    private static class Node {
+        /**
+         * The moves of the node's state, shuffled, so the children are added in a random order
+         */
+        private final int[] moves;
+        private final Node[] children;
+        private final boolean maxNode;
+
+        /**
+         * The number of children added so far, children[0] to children[expanded - 1]
+         */
+        private int expanded;
+        private int visits;
+        private double reward;
+
+        Node(int[] moves, boolean maxNode) {
+            this.moves = moves;
+            this.children = new Node[moves.length];
+            this.maxNode = maxNode;
+        }
+    }
+
+    /**
+     * One thread's search tree, with the state it plays moves on.
+     */
+    private class Tree {
+        private final SearchState state;
+        private final double rootUtility;
+        private final Random random;
+        private final MoveGenerator generator = new MoveGenerator();
+        private final Node root;
+
+        /**
+         * The nodes visited by the current iteration, root first
+         */
+        private Node[] path = new Node[64];
+
+        /**
+         * The moves played by the current iteration, tree and playout, so they can be taken back
+         */
+        private int[] played = new int[64];
+
+        /**
+         * @param state       The root state, played forward and back by the search
+         * @param rootUtility The utility of the root, which unfinished playouts are scored against
+         * @param random      The source of the tree's random choices
+         */
+        Tree(SearchState state, double rootUtility, Random random) {
+            this.state = state;
+            this.rootUtility = rootUtility;
+            this.random = random;
+            this.root = newNode();
+        }
+
+        /**
+         * Runs iterations until the limit is reached or the time budget runs out. At least one iteration is run.
+         * @param limit     The number of iterations, 0 for no limit
+         * @param rootMoves The legal moves at the root, in generation order
+         * @return The number of visits of each root move, in the same order as rootMoves
+         */
+        int[] search(int limit, int[] rootMoves) {
+            int count = 0;
+            do {
+                iterate();
+                count++;
+            } while ((limit <= 0 || count < limit) && !clock.isExpired());
+
+            int[] visits = new int[rootMoves.length];
+            for (int i = 0; i < root.expanded; i++) {
+                int index = 0;
+                while (rootMoves[index] != root.moves[i]) {
+                    index++;
+                }
+                visits[index] = root.children[i].visits;
+            }
+            return visits;
+        }
+
+        /**
+         * Selects a path down the tree, adds a child at the end of it, plays out from there and backs up the result.
+         */
+        private void iterate() {
+            Node node = root;
+            int depth = 0;
+            path[0] = root;
+
+            while (node.expanded == node.moves.length && node.moves.length > 0) {
+                int child = select(node);
+                play(depth, node.moves[child]);
+                node = node.children[child];
+                path[++depth] = node;
+            }
+
+            if (node.expanded < node.moves.length) {
+                play(depth, node.moves[node.expanded]);
+                Node child = newNode();
+                node.children[node.expanded++] = child;
+                node = child;
+                path[++depth] = node;
+            }
+
+            int treeMoves = depth;
+            double reward = playout(treeMoves);
+
+            for (int i = 0; i <= depth; i++) {
+                path[i].visits++;
+                path[i].reward += reward;
+            }
+            for (int i = treeMoves - 1; i >= 0; i--) {
+                state.undo(played[i]);
+            }
+        }
+
+        /**
+         * @param node A node with every child added
+         * @return The index of the child with the best upper confidence bound for the side to move
+         */
+        private int select(Node node) {
+            double logVisits = Math.log(node.visits);
+            int best = 0;
+            double bestBound = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < node.children.length; i++) {
+                Node child = node.children[i];
+                double mean = child.reward / child.visits;
+                double bound = (node.maxNode ? mean : 1 - mean) + exploration * Math.sqrt(logVisits / child.visits);
+                if (bound > bestBound) {
+                    bestBound = bound;
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Plays random moves from the current state until the game ends or playoutDepth plys have been played, and
+         * takes them back again.
+         * @param start The number of moves already played this iteration
+         * @return The reward of the final state
+         */
+        private double playout(int start) {
+            int count = start;
+            while (count - start < playoutDepth && !state.isTerminal()) {
+                int move = randomMove();
+                if (move == TranspositionTable.NO_MOVE) {
+                    break;
+                }
+                play(count++, move);
+            }
+
+            double reward = reward();
+            for (int i = count - 1; i >= start; i--) {
+                state.undo(played[i]);
+            }
+            return reward;
+        }
+
+        /**
+         * Picks a move for the side to move, at random among the moves with the most attacking units. Units that
+         * can attack nearly always should, and without this the playouts spend most of their time walking about.
+         * @return The move, or NO_MOVE if there are none
+         */
+        private int randomMove() {
+            generator.reset(state);
+            int chosen = TranspositionTable.NO_MOVE;
+            int mostAttacks = -1;
+            int seen = 0;
+            while (generator.hasNext()) {
+                int move = generator.next();
+                int attacks = attackCount(move);
+                if (attacks > mostAttacks) {
+                    mostAttacks = attacks;
+                    chosen = move;
+                    seen = 1;
+                } else if (attacks == mostAttacks && random.nextInt(++seen) == 0) {
+                    chosen = move;
+                }
+            }
+            return chosen;
+        }
+
+        private int attackCount(int move) {
+            int attacks = 0;
+            for (int unit = state.firstMover(); unit < state.endMover(); unit++) {
+                int code = move & SearchState.ACTION_MASK;
+                if (code >= SearchState.FIRST_ATTACK && code != SearchState.IDLE) {
+                    attacks++;
+                }
+                move >>>= SearchState.BITS_PER_UNIT;
+            }
+            return attacks;
+        }
+
+        /**
+         * @return 1 if the footmen have won, 0 if the archers have, otherwise the utility gained since the root
+         * squashed into a number between 0 and 1
+         */
+        private double reward() {
+            if (state.isTerminal()) {
+                return footmenAlive() ? 1 : 0;
+            }
+            return 1 / (1 + Math.exp((rootUtility - state.getUtility()) / UTILITY_SCALE));
+        }
+
+        private boolean footmenAlive() {
+            for (int slot = 0; slot < state.getFootmanCount(); slot++) {
+                if (state.getHealth(slot) > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Plays a move on the state, remembering it so it can be taken back
+         * @param index The number of moves already played this iteration
+         * @param move  The move
+         */
+        private void play(int index, int move) {
+            if (index == played.length) {
+                played = Arrays.copyOf(played, index * 2);
+            }
+            if (index + 1 >= path.length) {
+                path = Arrays.copyOf(path, path.length * 2);
+            }
+            played[index] = move;
+            state.apply(move);
+        }
+
+        /**
+         * @return A node for the current state, with its moves shuffled
+         */
+        private Node newNode() {
+            int[] moves = state.isTerminal() ? new int[0] : legalMoves(state, generator);
+            for (int i = moves.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int move = moves[i];
+                moves[i] = moves[j];
+                moves[j] = move;
+            }
+            return new Node(moves, state.getMaxNode());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Produces the joint moves of the side to move one at a time, as the move codes used by {@link SearchState}.
+ * <p>
+ * Reset works out each unit's legal action codes, then next() steps through their cartesian product like an
+ * odometer, so a joint move is only built when the search actually asks for it. Combinations that would move two
+ * units onto the same square are skipped. A generator is reused for every node it is reset on and never allocates
+ * after construction.
+ */
+public class MoveGenerator {
+
+    static final int MAX_CODES = SearchState.IDLE + 1;
+    private static final int NO_SQUARE = -1;
+
+    private final int[][] unitCodes       = new int[SearchState.MAX_UNITS_PER_SIDE][MAX_CODES];
+    private final int[][] unitDestination = new int[SearchState.MAX_UNITS_PER_SIDE][MAX_CODES];
+    private final int[] codeCounts        = new int[SearchState.MAX_UNITS_PER_SIDE];
+    private final int[] odometer          = new int[SearchState.MAX_UNITS_PER_SIDE];
+
+    private int moverCount;
+    private boolean odometerDone;
+
+    private boolean hasNext;
+    private int nextMove;
+
+    /**
+     * Finds the legal actions of every unit of the side to move.
+     * @param state The state to generate moves for
+     */
+    public void reset(SearchState state) {
+        moverCount = state.endMover() - state.firstMover();
+
+        for (int i = 0; i < moverCount; i++) {
+            codeCounts[i] = findCodes(state, state.firstMover() + i, unitCodes[i], unitDestination[i], false);
+            odometer[i] = 0;
+        }
+
+        odometerDone = moverCount == 0;
+        advance();
+    }
+
+    /**
+     * Finds only the attacks of every unit of the side to move, for the quiescence search. Each joint move has
+     * every unit that can attack attacking and the others waiting, and there are none if no unit can attack.
+     * @param state The state to generate moves for
+     */
+    public void resetAttacks(SearchState state) {
+        moverCount = state.endMover() - state.firstMover();
+
+        boolean anyAttack = false;
+        for (int i = 0; i < moverCount; i++) {
+            codeCounts[i] = findCodes(state, state.firstMover() + i, unitCodes[i], unitDestination[i], true);
+            odometer[i] = 0;
+            anyAttack |= unitCodes[i][0] != SearchState.IDLE;
+        }
+
+        odometerDone = !anyAttack;
+        advance();
+    }
+
+    /**
+     * Finds the legal actions of the unit acting next, for searching one unit at a time. Squares the unit's
+     * teammates have already moved onto this turn are blocked, and squares they have left are open.
+     * @param state The state, part way through the side's turn
+     * @param codes Filled with the unit's action codes, at least IDLE + 1 long
+     * @return The number of codes
+     */
+    public int unitCodes(SearchState state, int[] codes) {
+        return findCodes(state, state.firstMover() + state.getActingUnit(), codes, unitDestination[0], false);
+    }
+
+    /**
+     * Finds the legal actions of one unit
+     * @param state        The state
+     * @param unit         The slot of the unit, on the side to move
+     * @param codes        Filled with the unit's action codes
+     * @param destinations Filled with the square each code moves the unit to, or NO_SQUARE
+     * @param attacksOnly  Whether to leave out the steps
+     * @return The number of codes
+     */
+    private int findCodes(SearchState state, int unit, int[] codes, int[] destinations, boolean attacksOnly) {
+        int xExtent = state.getOrigin().getXExtent();
+        int count = 0;
+
+        // a unit killed earlier in the search can only wait, and can't be attacked again
+        boolean alive = state.getHealth(unit) > 0;
+        for (int code = 0; code < SearchState.MOVE_DIRECTIONS.length && alive && !attacksOnly; code++) {
+            int newX = state.getX(unit) + SearchState.MOVE_DIRECTIONS[code].xComponent();
+            int newY = state.getY(unit) + SearchState.MOVE_DIRECTIONS[code].yComponent();
+            if (state.isOpen(newX, newY)) {
+                destinations[count] = newY * xExtent + newX;
+                codes[count++] = code;
+            }
+        }
+
+        for (int enemy = state.firstEnemy(); enemy < state.endEnemy() && alive; enemy++) {
+            if (state.getHealth(enemy) > 0 && state.inRange(unit, enemy)) {
+                destinations[count] = NO_SQUARE;
+                codes[count++] = SearchState.FIRST_ATTACK + enemy - state.firstEnemy();
+            }
+        }
+
+        // a unit that is boxed in with nothing to attack waits instead of leaving the side without moves
+        if (count == 0) {
+            destinations[count] = NO_SQUARE;
+            codes[count++] = SearchState.IDLE;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return An upper bound on the number of joint moves reset found
+     */
+    public int size() {
+        int size = moverCount > 0 ? 1 : 0;
+        for (int i = 0; i < moverCount; i++) {
+            size *= codeCounts[i];
+        }
+        return size;
+    }
+
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * @return The next joint move
+     */
+    public int next() {
+        int move = nextMove;
+        advance();
+        return move;
+    }
+
+    /**
+     * Finds the next combination that doesn't send two units to the same square.
+     */
+    private void advance() {
+        while (!odometerDone) {
+            boolean collides = collides();
+            int move = 0;
+            if (!collides) {
+                for (int i = 0; i < moverCount; i++) {
+                    move |= unitCodes[i][odometer[i]] << (i * SearchState.BITS_PER_UNIT);
+                }
+            }
+
+            // advance the odometer, the first unit's action changing fastest
+            odometerDone = true;
+            for (int i = 0; i < moverCount; i++) {
+                if (++odometer[i] < codeCounts[i]) {
+                    odometerDone = false;
+                    break;
+                }
+                odometer[i] = 0;
+            }
+
+            if (!collides) {
+                nextMove = move;
+                hasNext = true;
+                return;
+            }
+        }
+        hasNext = false;
+    }
+
+    /**
+     * @return true if the odometer's current combination moves two units onto the same square
+     */
+    private boolean collides() {
+        for (int i = 0; i < moverCount; i++) {
+            int destination = unitDestination[i][odometer[i]];
+            if (destination == NO_SQUARE) {
+                continue;
+            }
+            for (int j = i + 1; j < moverCount; j++) {
+                if (unitDestination[j][odometer[j]] == destination) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
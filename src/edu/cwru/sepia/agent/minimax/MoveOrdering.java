@@ -0,0 +1,189 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * What one searcher has learned about which moves cause cutoffs, for trying those moves first.
+ * <p>
+ * Killer moves are the last moves to cause a cutoff at each ply, joint moves or single unit actions depending on the
+ * shape of the tree; a sibling of that node often has the same refutation. The history table counts how often each
+ * unit's action has been part of a cutoff, indexed by side, unit and action code, so it carries what was learned about
+ * one part of the tree to the rest of it. Both are kept between the iterations of a search and carried over to the next
+ * search, since that usually starts a turn further down the same tree.
+ */
+class MoveOrdering {
+
+    static final int KILLERS_PER_PLY = 2;
+
+    /**
+     * Moves with more units attacking are always tried first, before history is considered.
+     */
+    private static final int ATTACK_SCORE = 1 << 24;
+
+    /**
+     * History scores are halved when one reaches this, so they stay below ATTACK_SCORE once summed over the units.
+     */
+    private static final int HISTORY_LIMIT = 1 << 20;
+
+    private static final int CODES = SearchState.IDLE + 1;
+
+    private final int[][] killers;
+
+    /**
+     * Cutoff counts, indexed by [side][unit of that side][action code]
+     */
+    private final int[][][] history = new int[2][SearchState.MAX_UNITS_PER_SIDE][CODES];
+
+    private int searchGeneration = -1;
+
+    /**
+     * @param maxPly The number of plys killers are kept for
+     */
+    MoveOrdering(int maxPly) {
+        killers = new int[maxPly][KILLERS_PER_PLY];
+        clear();
+    }
+
+    /**
+     * Forgets every killer and all of the history
+     */
+    void clear() {
+        for (int[] plyKillers : killers) {
+            Arrays.fill(plyKillers, TranspositionTable.NO_MOVE);
+        }
+        for (int[][] sideHistory : history) {
+            for (int[] unitHistory : sideHistory) {
+                Arrays.fill(unitHistory, 0);
+            }
+        }
+    }
+
+    /**
+     * Shifts the killers up by one turn and ages the history when a new search starts. The next search's root is
+     * usually a position the previous search reached a turn below its root, so the killers that search found a turn
+     * down are the ones that apply at the new root. Called at every node, so it only does any work the first time it
+     * sees a new generation.
+     * @param generation   The transposition table's generation, which changes once per search
+     * @param pliesPerTurn The number of plys in one turn of both sides
+     */
+    void startSearch(int generation, int pliesPerTurn) {
+        if (generation == searchGeneration) {
+            return;
+        }
+        searchGeneration = generation;
+
+        for (int ply = 0; ply < killers.length; ply++) {
+            if (ply + pliesPerTurn < killers.length) {
+                System.arraycopy(killers[ply + pliesPerTurn], 0, killers[ply], 0, KILLERS_PER_PLY);
+            } else {
+                Arrays.fill(killers[ply], TranspositionTable.NO_MOVE);
+            }
+        }
+        ageHistory();
+    }
+
+    /**
+     * @param ply   The ply
+     * @param index Which of the ply's killers
+     * @return The killer move, or NO_MOVE
+     */
+    int getKiller(int ply, int index) {
+        return killers[ply][index];
+    }
+
+    /**
+     * Scores a move for ordering, higher first
+     * @param maxNode    Whether the footmen are making the move
+     * @param move       The joint move
+     * @param moverCount The number of units making it
+     * @return The number of attacking units, then the move's history
+     */
+    int score(boolean maxNode, int move, int moverCount) {
+        int[][] sideHistory = history[maxNode ? 0 : 1];
+        int attacks = 0;
+        int historyScore = 0;
+        for (int unit = 0; unit < moverCount; unit++) {
+            int code = (move >>> (unit * SearchState.BITS_PER_UNIT)) & SearchState.ACTION_MASK;
+            if (code >= SearchState.FIRST_ATTACK && code != SearchState.IDLE) {
+                attacks++;
+            }
+            historyScore += sideHistory[unit][code];
+        }
+        return attacks * ATTACK_SCORE + historyScore / moverCount;
+    }
+
+    /**
+     * Scores one unit's action for ordering, when the search moves one unit at a time
+     * @param maxNode Whether the footmen are making the move
+     * @param unit    The index of the unit within its side
+     * @param code    The action code
+     * @return Attacks first, then the action's history
+     */
+    int scoreUnit(boolean maxNode, int unit, int code) {
+        boolean attack = code >= SearchState.FIRST_ATTACK && code != SearchState.IDLE;
+        return (attack ? ATTACK_SCORE : 0) + history[maxNode ? 0 : 1][unit][code];
+    }
+
+    /**
+     * Remembers a move that caused a cutoff
+     * @param ply        The ply of the node
+     * @param depth      The remaining depth of the node, deeper cutoffs count for more
+     * @param maxNode    Whether the footmen made the move
+     * @param move       The joint move
+     * @param moverCount The number of units making it
+     */
+    void recordCutoff(int ply, int depth, boolean maxNode, int move, int moverCount) {
+        recordKiller(ply, move);
+
+        boolean overflow = false;
+        for (int unit = 0; unit < moverCount; unit++) {
+            int code = (move >>> (unit * SearchState.BITS_PER_UNIT)) & SearchState.ACTION_MASK;
+            overflow |= addHistory(maxNode, unit, code, depth);
+        }
+        if (overflow) {
+            ageHistory();
+        }
+    }
+
+    /**
+     * Remembers one unit's action that caused a cutoff, when the search moves one unit at a time
+     * @param ply     The ply of the node
+     * @param depth   The remaining depth of the node
+     * @param maxNode Whether the footmen made the move
+     * @param unit    The index of the unit within its side
+     * @param code    The action code
+     */
+    void recordUnitCutoff(int ply, int depth, boolean maxNode, int unit, int code) {
+        recordKiller(ply, code);
+        if (addHistory(maxNode, unit, code, depth)) {
+            ageHistory();
+        }
+    }
+
+    private void recordKiller(int ply, int move) {
+        int[] plyKillers = killers[ply];
+        if (plyKillers[0] != move) {
+            System.arraycopy(plyKillers, 0, plyKillers, 1, KILLERS_PER_PLY - 1);
+            plyKillers[0] = move;
+        }
+    }
+
+    /**
+     * @return true if the entry has reached HISTORY_LIMIT and the table needs aging
+     */
+    private boolean addHistory(boolean maxNode, int unit, int code, int depth) {
+        int[] unitHistory = history[maxNode ? 0 : 1][unit];
+        unitHistory[code] += depth * depth;
+        return unitHistory[code] >= HISTORY_LIMIT;
+    }
+
+    private void ageHistory() {
+        for (int[][] sideHistory : history) {
+            for (int[] unitHistory : sideHistory) {
+                for (int code = 0; code < CODES; code++) {
+                    unitHistory[code] >>= 1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the starting position of a game from one of the SEPIA state files in data/, such as Game2fv2a.xml,
+ * without needing SEPIA itself.
+ * <p>
+ * Player 0's units are the footmen and player 1's units are the archers. Every resource node is an obstacle.
+ */
+public class ScenarioLoader {
+
+    private ScenarioLoader() {
+    }
+
+    /**
+     * Loads a state file
+     * @param file The state file
+     * @return The starting state, with the footmen to move
+     * @throws IOException if the file can't be read or isn't a SEPIA state file
+     */
+    public static GameState load(File file) throws IOException {
+        Document document;
+        try {
+            document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Could not parse " + file, e);
+        }
+
+        Element state = document.getDocumentElement();
+        int xExtent = Integer.parseInt(state.getAttribute("xExtent"));
+        int yExtent = Integer.parseInt(state.getAttribute("yExtent"));
+
+        List<int[]> footmen = new ArrayList<>();
+        List<int[]> archers = new ArrayList<>();
+        List<GameState.MapLocation> resources = new ArrayList<>();
+
+        for (Element child : children(state)) {
+            if (child.getTagName().equals("player")) {
+                int player = intChild(child, "ID");
+                if (player == 0) {
+                    footmen.addAll(readUnits(child));
+                } else if (player == 1) {
+                    archers.addAll(readUnits(child));
+                }
+            } else if (child.getTagName().equals("resourceNode")) {
+                resources.add(new GameState.MapLocation(intChild(child, "xPosition"), intChild(child, "yPosition")));
+            }
+        }
+
+        int unitCount = footmen.size() + archers.size();
+        int[] units = new int[unitCount * GameState.UNIT_FIELDS];
+        int[] unitStats = new int[unitCount * GameState.STAT_FIELDS];
+
+        List<int[]> allUnits = new ArrayList<>(footmen);
+        allUnits.addAll(archers);
+        for (int slot = 0; slot < unitCount; slot++) {
+            int[] unit = allUnits.get(slot);
+            System.arraycopy(unit, 0, units, slot * GameState.UNIT_FIELDS, GameState.UNIT_FIELDS);
+            System.arraycopy(unit, GameState.UNIT_FIELDS, unitStats, slot * GameState.STAT_FIELDS,
+                    GameState.STAT_FIELDS);
+        }
+
+        return new GameState(xExtent, yExtent, footmen.size(), units, unitStats, resources, null);
+    }
+
+    /**
+     * Reads the units of one player, joining each one with its template.
+     * @param player The player element
+     * @return Each unit as its UNIT_FIELDS followed by its STAT_FIELDS
+     * @throws IOException if a unit's template is missing
+     */
+    private static List<int[]> readUnits(Element player) throws IOException {
+        Map<Integer, Element> templates = new HashMap<>();
+        for (Element child : children(player)) {
+            if (child.getTagName().equals("template")) {
+                templates.put(intChild(child, "ID"), child);
+            }
+        }
+
+        List<int[]> units = new ArrayList<>();
+        for (Element child : children(player)) {
+            if (!child.getTagName().equals("unit")) {
+                continue;
+            }
+
+            Element template = templates.get(intChild(child, "templateID"));
+            if (template == null) {
+                throw new IOException("Unit " + intChild(child, "ID") + " has no template");
+            }
+
+            int[] unit = new int[GameState.UNIT_FIELDS + GameState.STAT_FIELDS];
+            unit[GameState.ID]     = intChild(child, "ID");
+            unit[GameState.X]      = intChild(child, "xPosition");
+            unit[GameState.Y]      = intChild(child, "yPosition");
+            unit[GameState.HEALTH] = intChild(child, "currentHealth");
+            unit[GameState.UNIT_FIELDS + GameState.BASE_HEALTH]  = intChild(template, "baseHealth");
+            unit[GameState.UNIT_FIELDS + GameState.BASIC_ATTACK] = intChild(template, "baseAttack");
+            unit[GameState.UNIT_FIELDS + GameState.RANGE]        = intChild(template, "range");
+            units.add(unit);
+        }
+        return units;
+    }
+
+    /**
+     * @param element An element
+     * @return The element's child elements
+     */
+    private static List<Element> children(Element element) {
+        List<Element> children = new ArrayList<>();
+        NodeList nodes = element.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if (nodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) nodes.item(i));
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Reads the integer text of a direct child element.
+     * @param element The parent element
+     * @param name    The name of the child
+     * @return The child's value
+     * @throws IOException if there is no such child
+     */
+    private static int intChild(Element element, String name) throws IOException {
+        for (Element child : children(element)) {
+            if (child.getTagName().equals(name)) {
+                return Integer.parseInt(child.getTextContent().trim());
+            }
+        }
+        throw new IOException("<" + element.getTagName() + "> has no <" + name + ">");
+    }
+}
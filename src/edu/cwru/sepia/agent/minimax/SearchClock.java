@@ -0,0 +1,58 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Keeps track of the time budget of one middleStep, or of pondering between them. Shared by every search thread.
+ */
+public class SearchClock {
+
+    /**
+     * System.nanoTime() after which the current search is abandoned.
+     */
+    private volatile long deadline = Long.MAX_VALUE;
+
+    /**
+     * An iteration may only be abandoned once a shallower one has completed, so there is always a move to return.
+     */
+    private volatile boolean canAbort;
+
+    /**
+     * Starts the clock for a new search.
+     * @param budgetMillis The time the search may take in milliseconds, 0 for no limit
+     */
+    public void start(long budgetMillis) {
+        deadline = budgetMillis > 0 ? System.nanoTime() + budgetMillis * 1000000L : Long.MAX_VALUE;
+        canAbort = false;
+    }
+
+    /**
+     * Allows the search to be abandoned from now on.
+     */
+    public void allowAbort() {
+        canAbort = true;
+    }
+
+    /**
+     * Abandons the current search at its next check, whether or not it has a result yet. Used to end a search that
+     * has no time budget, such as pondering.
+     */
+    public void stop() {
+        deadline = Long.MIN_VALUE;
+        canAbort = true;
+    }
+
+    /**
+     * @return true if the time budget has been used up
+     */
+    public boolean isExpired() {
+        return System.nanoTime() > deadline;
+    }
+
+    /**
+     * Abandons the current search if the time budget has been used up and there is a result to fall back on.
+     */
+    public void check() {
+        if (canAbort && System.nanoTime() > deadline) {
+            throw new SearchTimeoutException();
+        }
+    }
+}
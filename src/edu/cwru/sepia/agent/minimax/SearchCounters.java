@@ -0,0 +1,70 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * What one searcher did, counted as it searches. Each searcher has its own, so counting needs no synchronization;
+ * the agent adds them up into a {@link SearchMetrics} once the threads are done.
+ */
+class SearchCounters {
+
+    /**
+     * The number of states searched at each ply
+     */
+    final long[] plyNodes;
+
+    long nodes;
+    long evaluations;
+    long movesGenerated;
+    long cutoffs;
+    long firstMoveCutoffs;
+    long tableHits;
+    long tableCutoffs;
+    long reductions;
+    long reSearches;
+    long futilityPrunes;
+    long quiescenceNodes;
+
+    /**
+     * @param maxPly The number of plys to count states for
+     */
+    SearchCounters(int maxPly) {
+        plyNodes = new long[maxPly];
+    }
+
+    /**
+     * Adds another searcher's counts to these
+     * @param other The other counts
+     */
+    void add(SearchCounters other) {
+        for (int ply = 0; ply < plyNodes.length; ply++) {
+            plyNodes[ply] += other.plyNodes[ply];
+        }
+        nodes += other.nodes;
+        evaluations += other.evaluations;
+        movesGenerated += other.movesGenerated;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+        tableHits += other.tableHits;
+        tableCutoffs += other.tableCutoffs;
+        reductions += other.reductions;
+        reSearches += other.reSearches;
+        futilityPrunes += other.futilityPrunes;
+        quiescenceNodes += other.quiescenceNodes;
+    }
+
+    void reset() {
+        Arrays.fill(plyNodes, 0);
+        nodes = 0;
+        evaluations = 0;
+        movesGenerated = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        tableHits = 0;
+        tableCutoffs = 0;
+        reductions = 0;
+        reSearches = 0;
+        futilityPrunes = 0;
+        quiescenceNodes = 0;
+    }
+}
@@ -0,0 +1,238 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * What the search did to choose one move: how long it took, how deep it got, and counts that show where the time
+ * went. Every search thread's counts are included. If the agent searched on the archers' time before the move, that
+ * search's metrics are kept separately in a ponder block, so the two can be told apart.
+ */
+public class SearchMetrics {
+
+    private final long turn;
+    private final long wallNanos;
+    private final int depth;
+    private final double value;
+    private final long[] plyNodes;
+    private final long nodes;
+    private final long evaluations;
+    private final long movesGenerated;
+    private final long cutoffs;
+    private final long firstMoveCutoffs;
+    private final long tableHits;
+    private final long tableCutoffs;
+    private final long reductions;
+    private final long reSearches;
+    private final long futilityPrunes;
+    private final long quiescenceNodes;
+    private final long distanceHits;
+    private final long distanceMisses;
+    private final SearchMetrics ponder;
+
+    /**
+     * @param turn           The number of the search within the game, starting at 1
+     * @param wallNanos      The wall clock time the search took
+     * @param depth          The depth of the deepest completed iteration
+     * @param value          The value of the root found by that iteration, or NaN if there isn't a single one
+     * @param counters       The search threads' counts, added up
+     * @param distanceHits   The path distance lookups that found their field already built
+     * @param distanceMisses The path distance lookups that had to build their field
+     * @param ponder         The metrics of the search between the previous turn and this one, or null if there wasn't
+     *                       one
+     */
+    SearchMetrics(long turn, long wallNanos, int depth, double value, SearchCounters counters, long distanceHits,
+                  long distanceMisses, SearchMetrics ponder) {
+        this.turn = turn;
+        this.wallNanos = wallNanos;
+        this.depth = depth;
+        this.value = value;
+
+        int plys = counters.plyNodes.length;
+        while (plys > 0 && counters.plyNodes[plys - 1] == 0) {
+            plys--;
+        }
+        this.plyNodes = Arrays.copyOf(counters.plyNodes, plys);
+
+        this.nodes = counters.nodes;
+        this.evaluations = counters.evaluations;
+        this.movesGenerated = counters.movesGenerated;
+        this.cutoffs = counters.cutoffs;
+        this.firstMoveCutoffs = counters.firstMoveCutoffs;
+        this.tableHits = counters.tableHits;
+        this.tableCutoffs = counters.tableCutoffs;
+        this.reductions = counters.reductions;
+        this.reSearches = counters.reSearches;
+        this.futilityPrunes = counters.futilityPrunes;
+        this.quiescenceNodes = counters.quiescenceNodes;
+        this.distanceHits = distanceHits;
+        this.distanceMisses = distanceMisses;
+        this.ponder = ponder;
+    }
+
+    public long getTurn() {
+        return turn;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The utility the search expects the chosen move to lead to, or NaN for a search between turns, which
+     * searches many roots
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return The number of states searched at each ply, up to the deepest one reached
+     */
+    public long[] getPlyNodes() {
+        return plyNodes.clone();
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return The number of leaves whose utility was computed
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return The number of moves generated, whether they were searched or cut off
+     */
+    public long getMovesGenerated() {
+        return movesGenerated;
+    }
+
+    /**
+     * @return The number of nodes whose search stopped early because a move was good enough
+     */
+    public long getCutoffs() {
+        return cutoffs;
+    }
+
+    /**
+     * @return The share of cutoffs made by the first move searched, a measure of the move ordering
+     */
+    public double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    /**
+     * @return The number of nodes found in the transposition table
+     */
+    public long getTableHits() {
+        return tableHits;
+    }
+
+    /**
+     * @return The number of nodes whose value the transposition table answered without a search
+     */
+    public long getTableCutoffs() {
+        return tableCutoffs;
+    }
+
+    /**
+     * @return The number of moves searched to a reduced depth by late move reductions
+     */
+    public long getReductions() {
+        return reductions;
+    }
+
+    /**
+     * @return The number of reduced moves that had to be searched again to the full depth
+     */
+    public long getReSearches() {
+        return reSearches;
+    }
+
+    /**
+     * @return The number of moves skipped by futility pruning
+     */
+    public long getFutilityPrunes() {
+        return futilityPrunes;
+    }
+
+    /**
+     * @return The number of nodes searched past the nominal depth by the quiescence search, included in getNodes
+     */
+    public long getQuiescenceNodes() {
+        return quiescenceNodes;
+    }
+
+    public long getDistanceHits() {
+        return distanceHits;
+    }
+
+    /**
+     * @return The number of distance fields built, each a breadth first search of the map
+     */
+    public long getDistanceMisses() {
+        return distanceMisses;
+    }
+
+    public double getDistanceHitRatio() {
+        long lookups = distanceHits + distanceMisses;
+        return lookups == 0 ? 0 : (double) distanceHits / lookups;
+    }
+
+    /**
+     * @return What the search on the archers' time before this move did, or null if there wasn't one. Its depth is
+     * the one reached on the first reply it searched.
+     */
+    public SearchMetrics getPonder() {
+        return ponder;
+    }
+
+    /**
+     * @return These metrics as a single line JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"turn\":").append(turn)
+                .append(",\"wallMillis\":").append(String.format(Locale.ROOT, "%.3f", wallNanos / 1e6))
+                .append(",\"depth\":").append(depth);
+        if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+            json.append(",\"value\":").append(String.format(Locale.ROOT, "%.3f", value));
+        }
+        json.append(",\"nodes\":").append(nodes)
+                .append(",\"plyNodes\":[");
+        for (int ply = 0; ply < plyNodes.length; ply++) {
+            json.append(ply > 0 ? "," : "").append(plyNodes[ply]);
+        }
+        json.append("],\"evaluations\":").append(evaluations)
+                .append(",\"movesGenerated\":").append(movesGenerated)
+                .append(",\"cutoffs\":").append(cutoffs)
+                .append(",\"firstMoveCutoffRate\":")
+                .append(String.format(Locale.ROOT, "%.4f", getFirstMoveCutoffRate()))
+                .append(",\"tableHits\":").append(tableHits)
+                .append(",\"tableCutoffs\":").append(tableCutoffs)
+                .append(",\"reductions\":").append(reductions)
+                .append(",\"reSearches\":").append(reSearches)
+                .append(",\"futilityPrunes\":").append(futilityPrunes)
+                .append(",\"quiescenceNodes\":").append(quiescenceNodes)
+                .append(",\"distanceHits\":").append(distanceHits)
+                .append(",\"distanceMisses\":").append(distanceMisses);
+        if (ponder != null) {
+            json.append(",\"ponder\":").append(ponder.toJson());
+        }
+        json.append('}');
+        return json.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
@@ -0,0 +1,84 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Optional agent arguments, given in the GameConfig file as name=value pairs after the positional arguments.
+ * <p>
+ * For example
+ * <pre>
+ *     &lt;Argument&gt;6&lt;/Argument&gt;
+ *     &lt;Argument&gt;1000&lt;/Argument&gt;
+ *     &lt;Argument&gt;threads=4&lt;/Argument&gt;
+ * </pre>
+ * An option that no agent or tool reads is rejected, so a misspelt name fails instead of running the defaults.
+ */
+public class SearchOptions {
+
+    /**
+     * Every option read by the agents and the tools. The tools hand the same arguments on to the agents they play,
+     * so each of them is given the others' options too, and one list has to cover them all.
+     */
+    private static final Set<String> KNOWN_OPTIONS = new TreeSet<>(Arrays.asList(
+            // MinimaxAlphaBeta
+            "threads", "splitReplies", "hashMb", "parallel", "search", "aspirationWindow", "tree",
+            "lateMoveReductions", "futilityPruning", "quiescence", "ponder", "metricsLog", "weights",
+            // MonteCarloTreeSearch
+            "exploration", "playoutDepth", "seed",
+            // MatchSimulator and TournamentRunner
+            "agent", "archers", "games", "maxTurns", "maps", "workers",
+            // WeightTuner
+            "iterations", "validationGames", "validateEvery", "step", "perturbation", "start", "out"));
+
+    private final Map<String, String> options = new HashMap<>();
+
+    /**
+     * Parses the name=value arguments.
+     * @param args        All of the agent's arguments
+     * @param firstOption The index of the first name=value argument
+     */
+    public SearchOptions(String[] args, int firstOption) {
+        for (int i = firstOption; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected an argument of the form name=value, got " + args[i]);
+            }
+            String name = args[i].substring(0, separator).trim();
+            if (!KNOWN_OPTIONS.contains(name)) {
+                throw new IllegalArgumentException("Unknown option " + name + ", expected one of " + KNOWN_OPTIONS);
+            }
+            options.put(name, args[i].substring(separator + 1).trim());
+        }
+    }
+
+    public int getInt(String name, int defaultValue) {
+        String value = value(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        String value = value(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = value(name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public String getString(String name, String defaultValue) {
+        String value = value(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private String value(String name) {
+        if (!KNOWN_OPTIONS.contains(name)) {
+            throw new IllegalStateException("Option " + name + " is missing from KNOWN_OPTIONS");
+        }
+        return options.get(name);
+    }
+}
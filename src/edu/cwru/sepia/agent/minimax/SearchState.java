@@ -0,0 +1,441 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.util.Direction;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A mutable copy of a GameState that the search walks through with {@link #apply(int)} and {@link #undo(int)},
+ * instead of allocating a new GameState for every child.
+ * <p>
+ * A joint move is an int holding one 4 bit action code per unit of the side to move, the first unit of the side in
+ * the lowest bits. Codes 0 to 3 move the unit in one of MOVE_DIRECTIONS, code FIRST_ATTACK + k attacks the k-th unit
+ * of the other side, and IDLE leaves a unit that has no legal action where it is.
+ * <p>
+ * The search can instead move one unit at a time with {@link #applyUnit(int)} and {@link #undoUnit(int)}, using the
+ * same action codes. The units of the side to move act in slot order and the turn passes to the other side after the
+ * last one. Each unit sees the squares its teammates have already moved to or from this turn.
+ */
+public class SearchState {
+
+    static final int BITS_PER_UNIT = 4;
+    static final int ACTION_MASK   = (1 << BITS_PER_UNIT) - 1;
+    static final int FIRST_ATTACK  = 4;
+    static final int IDLE          = ACTION_MASK;
+
+    // one unit short of filling the int, since a full side all idle would be -1, the transposition table's NO_MOVE
+    static final int MAX_UNITS_PER_SIDE = Integer.SIZE / BITS_PER_UNIT - 1;
+    static final int MAX_TARGETS        = IDLE - FIRST_ATTACK;
+
+    /**
+     * Units may only move up, down, left, or right
+     */
+    static final Direction[] MOVE_DIRECTIONS =
+            {Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST};
+
+    /**
+     * The state this search started from. Holds the map and the unit stats, which never change.
+     */
+    private final GameState origin;
+
+    private final int[] units;
+    private final int footmanCount;
+    private final int unitCount;
+
+    private boolean maxNode;
+    private long zobristKey;
+
+    /**
+     * The index within the side to move of the unit acting next, when moving one unit at a time. Always 0 between
+     * joint moves.
+     */
+    private int actingUnit;
+
+    /**
+     * The squares the units stand on, kept up to date by apply and undo
+     */
+    private final BitGrid occupied;
+
+    /**
+     * The features of the utility, brought up to date with the units whenever the utility is asked for
+     */
+    private final EvaluationTerms terms;
+
+    /**
+     * Keys from before each applied move, so undo doesn't need to rehash
+     */
+    private long[] keyStack = new long[64];
+    private int keyStackSize;
+
+    /**
+     * Creates a search state at the given game state.
+     * @param state The state to start from
+     */
+    public SearchState(GameState state) {
+        if (state.getFootmanCount() > MAX_UNITS_PER_SIDE || state.getArcherCount() > MAX_UNITS_PER_SIDE) {
+            throw new IllegalArgumentException("At most " + MAX_UNITS_PER_SIDE + " units per side are supported");
+        }
+        if (state.getFootmanCount() > MAX_TARGETS || state.getArcherCount() > MAX_TARGETS) {
+            throw new IllegalArgumentException("At most " + MAX_TARGETS + " attack targets are supported");
+        }
+
+        this.origin = state;
+        this.units = state.copyUnits();
+        this.footmanCount = state.getFootmanCount();
+        this.unitCount = state.getUnitCount();
+        this.maxNode = state.getMaxNode();
+        this.zobristKey = state.getZobristKey();
+
+        this.occupied = new BitGrid(state.getXExtent(), state.getYExtent());
+        for (int slot = 0; slot < unitCount; slot++) {
+            if (getHealth(slot) > 0) {
+                occupied.set(getX(slot), getY(slot));
+            }
+        }
+        this.terms = new EvaluationTerms(state, units);
+    }
+
+    private SearchState(SearchState other) {
+        this.origin = other.origin;
+        this.units = other.units.clone();
+        this.footmanCount = other.footmanCount;
+        this.unitCount = other.unitCount;
+        this.maxNode = other.maxNode;
+        this.zobristKey = other.zobristKey;
+        this.actingUnit = other.actingUnit;
+        this.occupied = other.occupied.copy();
+        this.terms = other.terms.copy();
+    }
+
+    /**
+     * @return An independent copy of this state, for handing to another search thread
+     */
+    public SearchState copy() {
+        return new SearchState(this);
+    }
+
+    /**
+     * Plays a joint move for the side to move.
+     * @param move The joint move
+     */
+    public void apply(int move) {
+        pushKey();
+
+        int shift = 0;
+        for (int unit = firstMover(); unit < endMover(); unit++, shift += BITS_PER_UNIT) {
+            applyAction(unit, (move >>> shift) & ACTION_MASK);
+        }
+
+        zobristKey ^= ZobristKeys.MAX_NODE;
+        maxNode = !maxNode;
+    }
+
+    /**
+     * Takes back the last move played with apply.
+     * @param move The joint move, which must be the last one applied
+     */
+    public void undo(int move) {
+        maxNode = !maxNode;
+
+        int shift = (endMover() - firstMover() - 1) * BITS_PER_UNIT;
+        for (int unit = endMover() - 1; unit >= firstMover(); unit--, shift -= BITS_PER_UNIT) {
+            undoAction(unit, (move >>> shift) & ACTION_MASK);
+        }
+
+        zobristKey = keyStack[--keyStackSize];
+    }
+
+    /**
+     * Plays the action of the unit acting next, passing the turn to the other side if it is the last of its side.
+     * @param code The unit's action code
+     */
+    public void applyUnit(int code) {
+        pushKey();
+        applyAction(firstMover() + actingUnit, code);
+
+        if (actingUnit > 0) {
+            zobristKey ^= ZobristKeys.actingUnitKey(actingUnit);
+        }
+        actingUnit++;
+        if (actingUnit == endMover() - firstMover()) {
+            actingUnit = 0;
+            zobristKey ^= ZobristKeys.MAX_NODE;
+            maxNode = !maxNode;
+        } else {
+            zobristKey ^= ZobristKeys.actingUnitKey(actingUnit);
+        }
+    }
+
+    /**
+     * Takes back the last action played with applyUnit.
+     * @param code The unit's action code, which must be the last one applied
+     */
+    public void undoUnit(int code) {
+        if (actingUnit == 0) {
+            maxNode = !maxNode;
+            actingUnit = endMover() - firstMover();
+        }
+        actingUnit--;
+
+        undoAction(firstMover() + actingUnit, code);
+        zobristKey = keyStack[--keyStackSize];
+    }
+
+    private void pushKey() {
+        if (keyStackSize == keyStack.length) {
+            keyStack = Arrays.copyOf(keyStack, keyStack.length * 2);
+        }
+        keyStack[keyStackSize++] = zobristKey;
+    }
+
+    /**
+     * Carries out one unit's action and updates the key for it
+     * @param unit The slot of the unit, on the side to move
+     * @param code The action code
+     */
+    private void applyAction(int unit, int code) {
+        int base = unit * GameState.UNIT_FIELDS;
+        int id = units[base + GameState.ID];
+
+        if (code < FIRST_ATTACK) {
+            int x = units[base + GameState.X];
+            int y = units[base + GameState.Y];
+            int newX = x + MOVE_DIRECTIONS[code].xComponent();
+            int newY = y + MOVE_DIRECTIONS[code].yComponent();
+
+            units[base + GameState.X] = newX;
+            units[base + GameState.Y] = newY;
+            occupied.clear(x, y);
+            occupied.set(newX, newY);
+            zobristKey ^= ZobristKeys.locationKey(id, x, y) ^ ZobristKeys.locationKey(id, newX, newY);
+
+        } else if (code != IDLE) {
+            int targetBase = (firstEnemy() + code - FIRST_ATTACK) * GameState.UNIT_FIELDS;
+            int targetId = units[targetBase + GameState.ID];
+            int health = units[targetBase + GameState.HEALTH];
+            int newHealth = health - origin.getBasicAttack(unit);
+
+            units[targetBase + GameState.HEALTH] = newHealth;
+            zobristKey ^= ZobristKeys.healthKey(targetId, health) ^ ZobristKeys.healthKey(targetId, newHealth);
+
+            // SEPIA takes a killed unit off the map, so its square is free for the rest of the search below here
+            if (health > 0 && newHealth <= 0) {
+                occupied.clear(units[targetBase + GameState.X], units[targetBase + GameState.Y]);
+            }
+        }
+    }
+
+    /**
+     * Reverses one unit's action. The key is restored separately from the key stack.
+     * @param unit The slot of the unit, on the side to move
+     * @param code The action code
+     */
+    private void undoAction(int unit, int code) {
+        int base = unit * GameState.UNIT_FIELDS;
+
+        if (code < FIRST_ATTACK) {
+            occupied.clear(units[base + GameState.X], units[base + GameState.Y]);
+            units[base + GameState.X] -= MOVE_DIRECTIONS[code].xComponent();
+            units[base + GameState.Y] -= MOVE_DIRECTIONS[code].yComponent();
+            occupied.set(units[base + GameState.X], units[base + GameState.Y]);
+        } else if (code != IDLE) {
+            int targetBase = (firstEnemy() + code - FIRST_ATTACK) * GameState.UNIT_FIELDS;
+            int health = units[targetBase + GameState.HEALTH];
+            int oldHealth = health + origin.getBasicAttack(unit);
+            units[targetBase + GameState.HEALTH] = oldHealth;
+            if (health <= 0 && oldHealth > 0) {
+                occupied.set(units[targetBase + GameState.X], units[targetBase + GameState.Y]);
+            }
+        }
+    }
+
+    /**
+     * Converts a joint move into the SEPIA actions that perform it.
+     * @param move The joint move, legal in this state
+     * @return The actions for each unit, keyed by unit id
+     */
+    public Map<Integer, Action> toActions(int move) {
+        Map<Integer, Action> actions = new HashMap<>();
+        int shift = 0;
+        for (int unit = firstMover(); unit < endMover(); unit++, shift += BITS_PER_UNIT) {
+            int code = (move >>> shift) & ACTION_MASK;
+            if (code < FIRST_ATTACK) {
+                actions.put(getId(unit), Action.createPrimitiveMove(getId(unit), MOVE_DIRECTIONS[code]));
+            } else if (code != IDLE) {
+                int target = firstEnemy() + code - FIRST_ATTACK;
+                actions.put(getId(unit), Action.createPrimitiveAttack(getId(unit), getId(target)));
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * @return An immutable snapshot of this state
+     */
+    public GameState toGameState() {
+        return new GameState(origin, units.clone(), maxNode, zobristKey);
+    }
+
+    /**
+     * @return The utility of this state, see GameState.getUtility
+     */
+    public double getUtility() {
+        return terms.getUtility(units);
+    }
+
+    /**
+     * The most the utility can change when units of the side to move act without attacking, for futility pruning.
+     * A step changes each footman's distance to its closest archer, an archer's distance to the walls and the
+     * distance between two units by at most one, and only changes the row and column matches of the unit that steps.
+     * @param movers The number of units acting
+     * @return A bound on the change in the utility, either way
+     */
+    double quietMoveSwing(int movers) {
+        EvaluationWeights weights = origin.getWeights();
+        int archerCount = unitCount - footmanCount;
+
+        // sameRow and sameColumn count ordered pairs of footmen and archerSpread ordered pairs of archers; only the
+        // pairs with a unit that steps change, and a pair of archers that both step changes by up to two
+        double swing;
+        if (maxNode) {
+            int pairs = Math.min(2 * movers * (footmanCount - 1), footmanCount * (footmanCount - 1));
+            swing = Math.abs(weights.archerDistance) * movers
+                    + (Math.abs(weights.sameRow) + Math.abs(weights.sameColumn)) * pairs;
+        } else {
+            int pairs = Math.min(2 * movers * (archerCount - 1), archerCount * (archerCount - 1));
+            swing = Math.abs(weights.archerDistance) * footmanCount
+                    + Math.abs(weights.archerSpread) * 2 * pairs
+                    + Math.abs(weights.wallDistance) * movers;
+        }
+        return swing;
+    }
+
+    /**
+     * Checks if one side has been wiped out. A state where the side to move has no legal moves is also terminal,
+     * which the search finds when it generates the moves.
+     * @return true if every archer or every footman is dead
+     */
+    public boolean isTerminal() {
+        return allDead(0, footmanCount) || allDead(footmanCount, unitCount);
+    }
+
+    /**
+     * @return true if every archer is dead
+     */
+    public boolean footmenWin() {
+        return allDead(footmanCount, unitCount);
+    }
+
+    /**
+     * Checks if every unit in a range of slots is dead
+     * @param firstUnit The first slot
+     * @param endUnit   One past the last slot
+     * @return true if none of the units has health left
+     */
+    private boolean allDead(int firstUnit, int endUnit) {
+        for (int slot = firstUnit; slot < endUnit; slot++) {
+            if (getHealth(slot) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a unit may step onto a square
+     * @param x The x coordinate of the square
+     * @param y The y coordinate of the square
+     * @return true if the square is on the map, not an obstacle and not occupied by a unit
+     */
+    boolean isOpen(int x, int y) {
+        BitGrid obstacles = origin.getObstacles();
+        return obstacles.inBounds(x, y) && !obstacles.get(x, y) && !occupied.get(x, y);
+    }
+
+    /**
+     * Checks if a unit can attack another
+     * @param unit  The slot of the attacking unit
+     * @param enemy The slot of the unit being attacked
+     * @return true if the enemy is within the unit's range
+     */
+    boolean inRange(int unit, int enemy) {
+        int range = origin.getRange(unit);
+        return range >= Math.abs(getX(unit) - getX(enemy)) && range >= Math.abs(getY(unit) - getY(enemy));
+    }
+
+    // GETTERS
+
+    public boolean getMaxNode() {
+        return maxNode;
+    }
+
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    /**
+     * @return The index within the side to move of the unit acting next, 0 at the start of a side's turn
+     */
+    public int getActingUnit() {
+        return actingUnit;
+    }
+
+    public int getUnitCount() {
+        return unitCount;
+    }
+
+    public int getFootmanCount() {
+        return footmanCount;
+    }
+
+    /**
+     * @return The first slot of the side to move
+     */
+    public int firstMover() {
+        return maxNode ? 0 : footmanCount;
+    }
+
+    /**
+     * @return One past the last slot of the side to move
+     */
+    public int endMover() {
+        return maxNode ? footmanCount : unitCount;
+    }
+
+    /**
+     * @return The first slot of the side not moving
+     */
+    public int firstEnemy() {
+        return maxNode ? footmanCount : 0;
+    }
+
+    /**
+     * @return One past the last slot of the side not moving
+     */
+    public int endEnemy() {
+        return maxNode ? unitCount : footmanCount;
+    }
+
+    public int getId(int slot) {
+        return units[slot * GameState.UNIT_FIELDS + GameState.ID];
+    }
+
+    public int getX(int slot) {
+        return units[slot * GameState.UNIT_FIELDS + GameState.X];
+    }
+
+    public int getY(int slot) {
+        return units[slot * GameState.UNIT_FIELDS + GameState.Y];
+    }
+
+    public int getHealth(int slot) {
+        return units[slot * GameState.UNIT_FIELDS + GameState.HEALTH];
+    }
+
+    public GameState getOrigin() {
+        return origin;
+    }
+}
@@ -0,0 +1,12 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Thrown to unwind the search when the time budget runs out.
+ */
+class SearchTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    SearchTimeoutException() {
+        super(null, null, false, false);
+    }
+}
@@ -0,0 +1,122 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays many headless games at once with {@link MatchSimulator}, over several maps, and reports for each map how often
+ * the footmen won, how long their wins took and how long the agent took to choose its moves.
+ * <p>
+ * The games are independent, so they are shared out over a pool of worker threads, one per core by default. Each
+ * worker has its own agent, and newGame is called on it before every game, so no game sees another's transposition
+ * table or distance fields. Each game also loads its own copy of the map.
+ * <p>
+ * Usage: java edu.cwru.sepia.agent.minimax.TournamentRunner plys budget-ms [name=value ...]
+ * <p>
+ * The options are maps (a comma separated list of state files, by default the ones in data/), games (per map),
+ * workers, agent, archers, maxTurns and seed. Game n of a map is played with seed + n, which seeds the random archer
+ * policy. Every option is also passed on to the agents, as with MatchSimulator.
+ */
+public class TournamentRunner {
+
+    static final String DEFAULT_MAPS = "data/Game2fv2a.xml,data/Game2fv2a_Obstacles.xml,"
+            + "data/Game2fv1a_Obstacles.xml";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: TournamentRunner plys|iterations budget-ms [name=value ...]");
+            System.exit(1);
+        }
+
+        SearchOptions options = new SearchOptions(args, 2);
+        String[] maps = options.getString("maps", DEFAULT_MAPS).split(",");
+        int games = options.getInt("games", 100);
+        int workers = options.getInt("workers", Runtime.getRuntime().availableProcessors());
+        String agentName = options.getString("agent", "minimax");
+        String archerName = options.getString("archers", "random");
+        int maxTurns = options.getInt("maxTurns", 500);
+        long seed = options.getInt("seed", 1);
+
+        ThreadLocal<FootmenPolicy> agents = ThreadLocal.withInitial(() -> FootmenPolicy.forName(agentName, args));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+
+        long startNanos = System.nanoTime();
+        Map<String, List<Future<MatchSimulator.MatchResult>>> results = new LinkedHashMap<>();
+        for (String map : maps) {
+            File file = new File(map.trim());
+            List<Future<MatchSimulator.MatchResult>> mapResults = new ArrayList<>();
+            for (int game = 0; game < games; game++) {
+                long gameSeed = seed + game;
+                mapResults.add(pool.submit(() -> {
+                    ArcherPolicy archers = ArcherPolicy.forName(archerName, gameSeed);
+                    MatchSimulator simulator = new MatchSimulator(agents.get(), archers, maxTurns);
+                    return simulator.play(ScenarioLoader.load(file));
+                }));
+            }
+            results.put(file.getPath(), mapResults);
+        }
+
+        System.out.printf("%-32s %6s %7s %7s %7s %9s %9s %9s %9s %9s%n", "Map", "games", "footmen", "archers",
+                "draws", "winTurns", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        try {
+            for (Map.Entry<String, List<Future<MatchSimulator.MatchResult>>> map : results.entrySet()) {
+                report(map.getKey(), map.getValue());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A game failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        System.out.printf("%d games in %.1f s on %d workers%n", maps.length * games,
+                (System.nanoTime() - startNanos) / 1e9, workers);
+    }
+
+    /**
+     * Prints one map's line of the results
+     * @param map     The map's file
+     * @param results The games played on it
+     */
+    private static void report(String map, List<Future<MatchSimulator.MatchResult>> results)
+            throws InterruptedException, ExecutionException {
+        int[] wins = new int[MatchSimulator.Winner.values().length];
+        long winTurns = 0;
+        long[] moveNanos = new long[0];
+        for (Future<MatchSimulator.MatchResult> future : results) {
+            MatchSimulator.MatchResult result = future.get();
+            wins[result.getWinner().ordinal()]++;
+            if (result.getWinner() == MatchSimulator.Winner.FOOTMEN) {
+                winTurns += result.getTurns();
+            }
+
+            long[] gameNanos = result.getMoveNanos();
+            int length = moveNanos.length;
+            moveNanos = Arrays.copyOf(moveNanos, length + gameNanos.length);
+            System.arraycopy(gameNanos, 0, moveNanos, length, gameNanos.length);
+        }
+        Arrays.sort(moveNanos);
+
+        int footmenWins = wins[MatchSimulator.Winner.FOOTMEN.ordinal()];
+        System.out.printf("%-32s %6d %7d %7d %7d %9.1f %9.3f %9.3f %9.3f %9.3f%n", map, results.size(), footmenWins,
+                wins[MatchSimulator.Winner.ARCHERS.ordinal()], wins[MatchSimulator.Winner.DRAW.ordinal()],
+                footmenWins == 0 ? 0 : (double) winTurns / footmenWins, percentile(moveNanos, 0.5),
+                percentile(moveNanos, 0.9), percentile(moveNanos, 0.99), percentile(moveNanos, 1));
+    }
+
+    /**
+     * @param sorted   Times in nanoseconds, sorted
+     * @param fraction The fraction of times at or below the result
+     * @return The time in milliseconds, or 0 if there are none
+     */
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
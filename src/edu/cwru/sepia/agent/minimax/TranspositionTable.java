@@ -0,0 +1,219 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fixed size table of previously searched positions, indexed by the Zobrist key of the state.
+ * <p>
+ * Each slot remembers the depth the position was searched to, its value, whether that value is exact or only a
+ * lower or upper bound, and the index of the best child found. A slot is three longs in a direct buffer outside the
+ * Java heap, so a large table costs the garbage collector nothing and probing and storing never allocate.
+ * <p>
+ * The table may be shared by several search threads without locking. The stored check word is the key XORed with
+ * the other two words of the slot, so a slot torn by two threads writing at once fails the check on the next probe
+ * and is treated as a miss. This lets any number of threads search with the same table at once (Lazy SMP).
+ * <p>
+ * Replacement is depth preferred: a slot is overwritten by a shallower search only when the stored entry is from an
+ * older search (see {@link #newSearch()}) or belongs to the same position.
+ */
+public class TranspositionTable {
+
+    public static final byte EXACT       = 0;
+    public static final byte LOWER_BOUND = 1;
+    public static final byte UPPER_BOUND = 2;
+
+    public static final int NO_MOVE = -1;
+
+    /**
+     * The check word, value and data word of a slot, in that order.
+     */
+    private static final int ENTRY_BYTES = 3 * Long.BYTES;
+    private static final int CHECK_OFFSET = 0;
+    private static final int VALUE_OFFSET = Long.BYTES;
+    private static final int DATA_OFFSET  = 2 * Long.BYTES;
+
+    /**
+     * The most entries a single buffer can hold, a power of two.
+     */
+    private static final int MAX_ENTRIES = Integer.highestOneBit(Integer.MAX_VALUE / ENTRY_BYTES);
+
+    private final int mask;
+
+    private final ByteBuffer slots;
+
+    private int generation;
+
+    /**
+     * Creates a table with at least the requested number of entries, rounded up to a power of two.
+     * @param requestedEntries The minimum number of entries
+     */
+    public TranspositionTable(int requestedEntries) {
+        int size = Math.min(MAX_ENTRIES, Integer.highestOneBit(Math.max(1, requestedEntries - 1)) << 1);
+        this.mask = size - 1;
+        this.slots = ByteBuffer.allocateDirect(size * ENTRY_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Creates the largest table that fits in a memory budget.
+     * @param megabytes The most memory the table may use, in megabytes
+     * @return The table, with a power of two number of entries
+     */
+    public static TranspositionTable withMegabytes(int megabytes) {
+        long entries = Math.max(1, (long) megabytes * 1024 * 1024 / ENTRY_BYTES);
+        return new TranspositionTable((int) Math.min(MAX_ENTRIES, Long.highestOneBit(entries)));
+    }
+
+    /**
+     * @return The number of entries in the table
+     */
+    public int size() {
+        return mask + 1;
+    }
+
+    /**
+     * Marks the start of a new search. Entries from earlier searches are kept for probing,
+     * but may be replaced regardless of their depth.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    /**
+     * @return A number that changes each time newSearch is called
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Empties the table, so a new game or a benchmark run starts from nothing.
+     */
+    public void clear() {
+        for (int offset = 0; offset < slots.capacity(); offset += Long.BYTES) {
+            slots.putLong(offset, 0);
+        }
+    }
+
+    /**
+     * Looks up a position.
+     * @param key   The Zobrist key of the position
+     * @param entry Filled in with the stored entry if the position is found
+     * @return true if the position is in the table
+     */
+    public boolean probe(long key, Entry entry) {
+        int offset = offset(key);
+        long value = slots.getLong(offset + VALUE_OFFSET);
+        long word = slots.getLong(offset + DATA_OFFSET);
+
+        if ((slots.getLong(offset + CHECK_OFFSET) ^ value ^ word) != key) {
+            return false;
+        }
+
+        entry.value    = Double.longBitsToDouble(value);
+        entry.depth    = depthOf(word);
+        entry.bound    = boundOf(word);
+        entry.bestMove = bestMoveOf(word);
+        return true;
+    }
+
+    /**
+     * Looks up only the best child of a position.
+     * @param key The Zobrist key of the position
+     * @return The index of the best child, or NO_MOVE if the position is not in the table
+     */
+    public int getBestMove(long key) {
+        int offset = offset(key);
+        long word = slots.getLong(offset + DATA_OFFSET);
+        long check = slots.getLong(offset + CHECK_OFFSET) ^ slots.getLong(offset + VALUE_OFFSET) ^ word;
+        return check == key ? bestMoveOf(word) : NO_MOVE;
+    }
+
+    /**
+     * Stores the result of searching a position, subject to the replacement policy.
+     * @param key      The Zobrist key of the position
+     * @param depth    The remaining depth the position was searched to
+     * @param value    The value found
+     * @param bound    One of EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param bestMove The index of the best child, or NO_MOVE
+     */
+    public void store(long key, int depth, double value, byte bound, int bestMove) {
+        int offset = offset(key);
+        long oldValue = slots.getLong(offset + VALUE_OFFSET);
+        long oldWord = slots.getLong(offset + DATA_OFFSET);
+        boolean samePosition = (slots.getLong(offset + CHECK_OFFSET) ^ oldValue ^ oldWord) == key;
+
+        if (!samePosition && oldWord != 0 && generationOf(oldWord) == generation && depthOf(oldWord) > depth) {
+            return;
+        }
+
+        // keep the old best move if this search didn't find one for the same position
+        if (bestMove == NO_MOVE && samePosition) {
+            bestMove = bestMoveOf(oldWord);
+        }
+
+        long newValue = Double.doubleToRawLongBits(value);
+        long newWord = pack(depth, bound, bestMove);
+
+        slots.putLong(offset + VALUE_OFFSET, newValue);
+        slots.putLong(offset + DATA_OFFSET, newWord);
+        slots.putLong(offset + CHECK_OFFSET, key ^ newValue ^ newWord);
+    }
+
+    /**
+     * @param key The Zobrist key of a position
+     * @return The byte offset of the position's slot
+     */
+    private int offset(long key) {
+        return ((int) key & mask) * ENTRY_BYTES;
+    }
+
+    private long pack(int depth, byte bound, int bestMove) {
+        return (depth & 0xFFFFL)
+                | ((long) bound << 16)
+                | ((long) generation << 24)
+                | ((long) (bestMove + 1) << 32);
+    }
+
+    private static int depthOf(long word) {
+        return (int) (word & 0xFFFF);
+    }
+
+    private static byte boundOf(long word) {
+        return (byte) ((word >>> 16) & 0xFF);
+    }
+
+    private static int generationOf(long word) {
+        return (int) ((word >>> 24) & 0xFF);
+    }
+
+    private static int bestMoveOf(long word) {
+        return (int) (word >>> 32) - 1;
+    }
+
+    /**
+     * Holds a copy of a table entry. Each search thread reuses its own.
+     */
+    public static class Entry {
+        private int depth;
+        private double value;
+        private byte bound;
+        private int bestMove;
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public byte getBound() {
+            return bound;
+        }
+
+        public int getBestMove() {
+            return bestMove;
+        }
+    }
+}
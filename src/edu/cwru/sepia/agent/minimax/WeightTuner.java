@@ -0,0 +1,234 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tunes the {@link EvaluationWeights} by SPSA (simultaneous perturbation stochastic approximation) over headless
+ * games played with {@link MatchSimulator}, and writes the best weights it finds to a weight file for the agents'
+ * weights option.
+ * <p>
+ * Each iteration moves every weight at once by a step of random sign, plays a batch of games with the weights moved
+ * up and the same batch with them moved down, and moves the weights towards the side that scored better, in
+ * proportion to the difference. So two batches estimate the gradient however many weights there are. Both batches
+ * use the same seeds, so the random archers make the same choices in both and the difference is down to the
+ * weights. The games of both batches are shared out over a pool of worker threads, one per core by default.
+ * <p>
+ * A game scores 1 for a footmen win, less up to a half for the turns it took, 0 for a draw and -1 for a loss, so
+ * weights that win sooner at the same depth score higher. The tuner is meant to be run at a shallow depth, where the
+ * evaluation decides the most. Every validateEvery iterations the current weights play a fixed set of games, the
+ * same set each time, and are written out whenever they beat the best score so far.
+ * <p>
+ * The footmanHealth weight is held at its starting value. Multiplying every weight by the same factor doesn't change
+ * which move minimax picks, so one weight is left to set the scale.
+ * <p>
+ * Usage: java edu.cwru.sepia.agent.minimax.WeightTuner plys budget-ms [name=value ...]
+ * <p>
+ * The options are iterations, games (per map in each batch), validationGames (per map), validateEvery, step and
+ * perturbation (the SPSA gains, relative to each weight's starting size), start (a weight file to start from), out
+ * (the file to write, weights.properties by default) and, as for {@link TournamentRunner}, maps, workers, agent,
+ * archers, maxTurns and seed. Every option is also passed on to the agents.
+ */
+public class WeightTuner {
+
+    // The exponents of the SPSA gain sequences recommended by Spall
+    private static final double STEP_DECAY = 0.602;
+    private static final double PERTURBATION_DECAY = 0.101;
+
+    private final File[] maps;
+    private final int maxTurns;
+    private final String archerName;
+    private final ThreadLocal<FootmenPolicy> agents;
+    private final ExecutorService pool;
+
+    /**
+     * @param maps       The maps every batch is played on
+     * @param maxTurns   The number of turns after which a game is a draw
+     * @param archerName The archer policy, see ArcherPolicy.forName
+     * @param agentName  The footmen agent, see FootmenPolicy.forName
+     * @param args       The agents' arguments
+     * @param workers    The number of games to play at once
+     */
+    private WeightTuner(File[] maps, int maxTurns, String archerName, String agentName, String[] args, int workers) {
+        this.maps = maps;
+        this.maxTurns = maxTurns;
+        this.archerName = archerName;
+        this.agents = ThreadLocal.withInitial(() -> FootmenPolicy.forName(agentName, args));
+        this.pool = Executors.newFixedThreadPool(workers);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: WeightTuner plys|iterations budget-ms [name=value ...]");
+            System.exit(1);
+        }
+
+        SearchOptions options = new SearchOptions(args, 2);
+        String[] mapNames = options.getString("maps", TournamentRunner.DEFAULT_MAPS).split(",");
+        File[] maps = new File[mapNames.length];
+        for (int i = 0; i < maps.length; i++) {
+            maps[i] = new File(mapNames[i].trim());
+        }
+        int iterations = options.getInt("iterations", 100);
+        int games = options.getInt("games", 8);
+        int validationGames = options.getInt("validationGames", 4 * games);
+        int validateEvery = options.getInt("validateEvery", 10);
+        double step = options.getDouble("step", 4.0);
+        double perturbation = options.getDouble("perturbation", 0.2);
+        String start = options.getString("start", null);
+        Path out = Paths.get(options.getString("out", "weights.properties"));
+        long seed = options.getInt("seed", 1);
+
+        WeightTuner tuner = new WeightTuner(maps, options.getInt("maxTurns", 500),
+                options.getString("archers", "random"), options.getString("agent", "minimax"), args,
+                options.getInt("workers", Runtime.getRuntime().availableProcessors()));
+        EvaluationWeights initial = start == null
+                ? EvaluationWeights.DEFAULT : EvaluationWeights.load(Paths.get(start));
+        try {
+            tuner.tune(initial, iterations, games, validationGames, validateEvery, step, perturbation, seed, out);
+        } finally {
+            tuner.pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the SPSA iterations, writing the weights to a file each time they score better than the best so far
+     * @param initial         The weights to start from
+     * @param iterations      The number of iterations
+     * @param games           The games per map in each batch
+     * @param validationGames The games per map the current weights are scored on
+     * @param validateEvery   The number of iterations between scorings
+     * @param step            The size of the first step, relative to the weights' starting sizes
+     * @param perturbation    The size of the first perturbation, relative to the weights' starting sizes
+     * @param seed            The seed of the perturbations and the games
+     * @param out             The weight file to write
+     */
+    private void tune(EvaluationWeights initial, int iterations, int games, int validationGames, int validateEvery,
+                      double step, double perturbation, long seed, Path out) throws InterruptedException {
+        double[] weights = initial.toArray();
+        double[] scale = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            scale[i] = Math.max(Math.abs(weights[i]), 1);
+        }
+        Random random = new Random(seed);
+        double stability = iterations / 10.0;
+
+        double bestScore = validate(initial, validationGames, seed);
+        initial.save(out, String.format(Locale.ROOT, "starting weights, validation score %.4f", bestScore));
+        System.out.printf("start: %.4f %s%n", bestScore, initial);
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            double stepSize = step / Math.pow(iteration + 1 + stability, STEP_DECAY);
+            double perturbationSize = perturbation / Math.pow(iteration + 1, PERTURBATION_DECAY);
+
+            int[] signs = new int[weights.length];
+            double[] plus = weights.clone();
+            double[] minus = weights.clone();
+            for (int i = 0; i < weights.length; i++) {
+                if (i != EvaluationWeights.FOOTMAN_HEALTH) {
+                    signs[i] = random.nextBoolean() ? 1 : -1;
+                    plus[i] += perturbationSize * scale[i] * signs[i];
+                    minus[i] -= perturbationSize * scale[i] * signs[i];
+                }
+            }
+
+            long batchSeed = seed + (long) iteration * games;
+            double[] scores = play(new EvaluationWeights[] {new EvaluationWeights(plus), new EvaluationWeights(minus)},
+                    games, batchSeed);
+            for (int i = 0; i < weights.length; i++) {
+                if (signs[i] != 0) {
+                    double gradient = (scores[0] - scores[1]) / (2 * perturbationSize * signs[i]);
+                    // every term is a reward or a penalty by the way it is written, so a weight below zero would
+                    // reward what the term is meant to punish
+                    weights[i] = Math.max(0, weights[i] + stepSize * scale[i] * gradient);
+                }
+            }
+            System.out.printf("iteration %d: +%.4f -%.4f %s%n", iteration + 1, scores[0], scores[1],
+                    new EvaluationWeights(weights));
+
+            if ((iteration + 1) % validateEvery == 0 || iteration + 1 == iterations) {
+                EvaluationWeights current = new EvaluationWeights(weights);
+                double score = validate(current, validationGames, seed);
+                System.out.printf("validation: %.4f (best %.4f)%n", score, bestScore);
+                if (score > bestScore) {
+                    bestScore = score;
+                    current.save(out, String.format(Locale.ROOT, "after %d iterations, validation score %.4f",
+                            iteration + 1, score));
+                    System.out.printf("wrote %s%n", out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scores weights on the validation games, which are the same every time and none of which are used for the
+     * gradient
+     * @param weights The weights
+     * @param games   The number of games per map
+     * @param seed    The tuner's seed
+     * @return The average score
+     */
+    private double validate(EvaluationWeights weights, int games, long seed) throws InterruptedException {
+        return play(new EvaluationWeights[] {weights}, games, seed - games)[0];
+    }
+
+    /**
+     * Plays the same games with each set of weights, all at once on the pool
+     * @param candidates The sets of weights
+     * @param games      The number of games per map
+     * @param firstSeed  The seed of the archers in the first game of each map, the others following on
+     * @return The average score of each set of weights
+     */
+    private double[] play(EvaluationWeights[] candidates, int games, long firstSeed) throws InterruptedException {
+        List<List<Future<Double>>> results = new ArrayList<>();
+        for (EvaluationWeights weights : candidates) {
+            List<Future<Double>> candidateResults = new ArrayList<>();
+            for (File map : maps) {
+                for (int game = 0; game < games; game++) {
+                    long gameSeed = firstSeed + game;
+                    candidateResults.add(pool.submit(() -> {
+                        FootmenPolicy agent = agents.get();
+                        agent.setWeights(weights);
+                        ArcherPolicy archers = ArcherPolicy.forName(archerName, gameSeed);
+                        return score(new MatchSimulator(agent, archers, maxTurns).play(ScenarioLoader.load(map)));
+                    }));
+                }
+            }
+            results.add(candidateResults);
+        }
+
+        double[] scores = new double[candidates.length];
+        try {
+            for (int candidate = 0; candidate < candidates.length; candidate++) {
+                for (Future<Double> result : results.get(candidate)) {
+                    scores[candidate] += result.get();
+                }
+                scores[candidate] /= results.get(candidate).size();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A game failed", e.getCause());
+        }
+        return scores;
+    }
+
+    /**
+     * @param result The outcome of a game
+     * @return 1 for a footmen win less up to a half for the turns it took, 0 for a draw or -1 for a loss
+     */
+    private double score(MatchSimulator.MatchResult result) {
+        switch (result.getWinner()) {
+            case FOOTMEN:
+                return 1 - 0.5 * result.getTurns() / maxTurns;
+            case ARCHERS:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Zobrist keys for the parts of a game state that distinguish one position from another: unit locations,
+ * unit health, whose turn it is and, when the search moves one unit at a time, which unit is to act.
+ * <p>
+ * Instead of filling a table with random numbers up front, each key is produced by running the feature through
+ * the SplitMix64 finalizer. This gives the same well spread bits as a random table, but does not need to know the
+ * map size, unit ids or health ranges before the game starts.
+ */
+final class ZobristKeys {
+
+    /**
+     * XORed into the key of every state where the footmen are to move.
+     */
+    static final long MAX_NODE = mix(0x9E3779B97F4A7C15L);
+
+    private static final long LOCATION_TAG = 1L << 56;
+    private static final long HEALTH_TAG   = 2L << 56;
+    private static final long ACTING_TAG   = 3L << 56;
+
+    private ZobristKeys() {
+    }
+
+    /**
+     * Returns the key for a unit standing at a location
+     * @param id The id of the unit
+     * @param x  The x coordinate of the unit
+     * @param y  The y coordinate of the unit
+     * @return The key for the unit at that location
+     */
+    static long locationKey(int id, int x, int y) {
+        return mix(LOCATION_TAG ^ ((long) id << 32) ^ ((long) x << 16) ^ y);
+    }
+
+    /**
+     * Returns the key for a unit having a certain amount of health
+     * @param id     The id of the unit
+     * @param health The current health of the unit
+     * @return The key for the unit with that health
+     */
+    static long healthKey(int id, int health) {
+        return mix(HEALTH_TAG ^ ((long) id << 32) ^ (health & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Returns the key for a unit other than the first of its side being the next to act
+     * @param actingUnit The index of the unit within its side, at least 1
+     * @return The key for that unit acting next
+     */
+    static long actingUnitKey(int actingUnit) {
+        return mix(ACTING_TAG ^ actingUnit);
+    }
+
+    /**
+     * Returns the combined location and health key of a unit
+     * @param id     The id of the unit
+     * @param x      The x coordinate of the unit
+     * @param y      The y coordinate of the unit
+     * @param health The current health of the unit
+     * @return The key of the unit
+     */
+    static long unitKey(int id, int x, int y, int health) {
+        return locationKey(id, x, y) ^ healthKey(id, health);
+    }
+
+    /**
+     * The SplitMix64 finalizer.
+     * @param z The value to mix
+     * @return The mixed value
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}